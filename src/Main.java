@@ -1,19 +1,81 @@
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
 import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.NavigableSet;
+import java.util.Set;
 import java.util.Scanner;
-
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
 import com.fasterxml.jackson.core.JsonGenerationException;
 import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -27,9 +89,33 @@ class Main {
 // Session
 // 현재 사용자가 이용중인 정보
 // 이 안의 정보는 사용자가 프로그램을 사용할 때 동안은 계속 유지된다.
+// 사용자마다 하나씩 SessionStore에 토큰으로 보관된다. (CLI는 App이 하나, HTTP는 로그인할 때마다 하나)
 class Session {
-	private Member loginedMember;
-	private Board currentBoard;
+	private String token;
+	private volatile Member loginedMember;
+	private volatile Board currentBoard;
+	// 마지막으로 쓴 시각, 오래 안 쓰면 만료
+	private volatile long lastAccessMillis;
+
+	Session(String token) {
+		this.token = token;
+		this.lastAccessMillis = System.currentTimeMillis();
+	}
+
+	public String getToken() {
+		return token;
+	}
+
+	public long getLastAccessMillis() {
+		return lastAccessMillis;
+	}
+
+	// 1초 안에 또 쓰면 기록하지 않는다 (동시에 많이 읽을 때 같은 값을 계속 쓰지 않도록)
+	public void touch(long now) {
+		if (now - lastAccessMillis > 1000) {
+			lastAccessMillis = now;
+		}
+	}
 
 	public Member getLoginedMember() {
 		return loginedMember;
@@ -52,30 +138,158 @@ class Session {
 	}
 }
 
+// SessionStore
+// 토큰 -> 세션
+// 찾기는 ConcurrentHashMap 조회뿐이라 잠그지 않는다.
+// 만료는 따로 쓰레드를 두지 않고, 찾을 때 만료된 세션이면 지우고,
+// SWEEP_INTERVAL_MILLIS마다 한번 (그때 요청을 처리하던 쓰레드 하나가) 만료된 세션들을 한꺼번에 지운다.
+class SessionStore {
+	private static final long SWEEP_INTERVAL_MILLIS = 60 * 1000;
+
+	private Map<String, Session> sessions = new ConcurrentHashMap<>();
+	private SecureRandom random = new SecureRandom();
+	// 이만큼 안 쓰면 만료 (-Dssg.session.idleMinutes, 기본 30분)
+	private long idleTimeoutMillis;
+	private AtomicLong nextSweepMillis;
+
+	SessionStore() {
+		idleTimeoutMillis = Long.getLong("ssg.session.idleMinutes", 30) * 60 * 1000;
+		nextSweepMillis = new AtomicLong(System.currentTimeMillis() + SWEEP_INTERVAL_MILLIS);
+	}
+
+	public Session create() {
+		sweepIfNeeded(System.currentTimeMillis());
+
+		byte[] bytes = new byte[16];
+		random.nextBytes(bytes);
+
+		Session session = new Session(Base64.getUrlEncoder().withoutPadding().encodeToString(bytes));
+		sessions.put(session.getToken(), session);
+
+		return session;
+	}
+
+	// 없거나 만료되었으면 null
+	public Session get(String token) {
+		if (token == null) {
+			return null;
+		}
+
+		long now = System.currentTimeMillis();
+		sweepIfNeeded(now);
+
+		Session session = sessions.get(token);
+
+		if (session == null) {
+			return null;
+		}
+
+		if (isExpired(session, now)) {
+			sessions.remove(token, session);
+			return null;
+		}
+
+		session.touch(now);
+
+		return session;
+	}
+
+	public void remove(String token) {
+		sessions.remove(token);
+	}
+
+	public int size() {
+		return sessions.size();
+	}
+
+	private boolean isExpired(Session session, long now) {
+		return now - session.getLastAccessMillis() > idleTimeoutMillis;
+	}
+
+	private void sweepIfNeeded(long now) {
+		long next = nextSweepMillis.get();
+
+		// 시간이 된 경우 한 쓰레드만 지운다
+		if (now < next || nextSweepMillis.compareAndSet(next, now + SWEEP_INTERVAL_MILLIS) == false) {
+			return;
+		}
+
+		sessions.values().removeIf(session -> isExpired(session, now));
+	}
+}
+
 // Factory
 // 프로그램 전체에서 공유되는 객체 리모콘을 보관하는 클래스
+// 자동빌드 쓰레드 등에서도 부르기 때문에 처음 만들 때만 잠그고(double-checked locking), 그 다음부터는 잠그지 않는다.
 
 class Factory {
-	private static Session session;
-	private static DB db;
-	private static BuildService buildService;
-	private static ArticleService articleService;
-	private static ArticleDao articleDao;
-	private static MemberService memberService;
-	private static MemberDao memberDao;
-	private static Scanner scanner;
+	private static volatile SessionStore sessionStore;
+	private static volatile DB db;
+	private static volatile BuildService buildService;
+	private static volatile ArticleService articleService;
+	private static volatile ArticleDao articleDao;
+	private static volatile MemberService memberService;
+	private static volatile MemberDao memberDao;
+	private static volatile Scanner scanner;
+	private static volatile EventBus eventBus;
+	private static volatile ApiServer apiServer;
+	private static volatile DevServer devServer;
+
+	public static ApiServer getApiServer() {
+		if (apiServer == null) {
+			synchronized (Factory.class) {
+				if (apiServer == null) {
+					apiServer = new ApiServer();
+				}
+			}
+		}
 
-	public static Session getSession() {
-		if (session == null) {
-			session = new Session();
+		return apiServer;
+	}
+
+	public static DevServer getDevServer() {
+		if (devServer == null) {
+			synchronized (Factory.class) {
+				if (devServer == null) {
+					devServer = new DevServer();
+				}
+			}
 		}
 
-		return session;
+		return devServer;
+	}
+
+	public static EventBus getEventBus() {
+		if (eventBus == null) {
+			synchronized (Factory.class) {
+				if (eventBus == null) {
+					eventBus = new EventBus();
+				}
+			}
+		}
+
+		return eventBus;
+	}
+
+	public static SessionStore getSessionStore() {
+		if (sessionStore == null) {
+			synchronized (Factory.class) {
+				if (sessionStore == null) {
+					sessionStore = new SessionStore();
+				}
+			}
+		}
+
+		return sessionStore;
 	}
 
 	public static Scanner getScanner() {
 		if (scanner == null) {
-			scanner = new Scanner(System.in);
+			synchronized (Factory.class) {
+				if (scanner == null) {
+					scanner = new Scanner(System.in);
+				}
+			}
 		}
 
 		return scanner;
@@ -83,7 +297,11 @@ class Factory {
 
 	public static DB getDB() {
 		if (db == null) {
-			db = new DB();
+			synchronized (Factory.class) {
+				if (db == null) {
+					db = new DB();
+				}
+			}
 		}
 
 		return db;
@@ -91,7 +309,11 @@ class Factory {
 
 	public static ArticleService getArticleService() {
 		if (articleService == null) {
-			articleService = new ArticleService();
+			synchronized (Factory.class) {
+				if (articleService == null) {
+					articleService = new ArticleService();
+				}
+			}
 		}
 
 		return articleService;
@@ -99,7 +321,11 @@ class Factory {
 
 	public static ArticleDao getArticleDao() {
 		if (articleDao == null) {
-			articleDao = new ArticleDao();
+			synchronized (Factory.class) {
+				if (articleDao == null) {
+					articleDao = new ArticleDao();
+				}
+			}
 		}
 
 		return articleDao;
@@ -107,14 +333,22 @@ class Factory {
 
 	public static MemberService getMemberService() {
 		if (memberService == null) {
-			memberService = new MemberService();
+			synchronized (Factory.class) {
+				if (memberService == null) {
+					memberService = new MemberService();
+				}
+			}
 		}
 		return memberService;
 	}
 
 	public static MemberDao getMemberDao() {
 		if (memberDao == null) {
-			memberDao = new MemberDao();
+			synchronized (Factory.class) {
+				if (memberDao == null) {
+					memberDao = new MemberDao();
+				}
+			}
 		}
 
 		return memberDao;
@@ -122,7 +356,11 @@ class Factory {
 
 	public static BuildService getBuildService() {
 		if (buildService == null) {
-			buildService = new BuildService();
+			synchronized (Factory.class) {
+				if (buildService == null) {
+					buildService = new BuildService();
+				}
+			}
 		}
 
 		return buildService;
@@ -132,6 +370,8 @@ class Factory {
 // App
 class App {
 	private Map<String, Controller> controllers;
+	// CLI 사용자의 세션
+	private Session session;
 
 	// 컨트롤러 만들고 한곳에 정리
 	// 나중에 컨트롤러 이름으로 쉽게 찾아쓸 수 있게 하려고 Map 사용
@@ -140,6 +380,8 @@ class App {
 		controllers.put("build", new BuildController());
 		controllers.put("article", new ArticleController());
 		controllers.put("member", new MemberController());
+		controllers.put("db", new DBController());
+		controllers.put("server", new ServerController());
 	}
 
 	public App() {
@@ -154,10 +396,15 @@ class App {
 		// 자유 게시판 생성
 		Factory.getArticleService().makeBoard("자유게시판", "free");
 
-		// 현재 게시판을 1번 게시판으로 선택
-		Factory.getSession().setCurrentBoard(Factory.getArticleService().getBoard(1));
-		// 임시 : 현재 로그인 된 회원은 1번 회원으로 지정, 이건 나중에 회원가입, 로그인 추가되면 제거해야함
-		Factory.getSession().setLoginedMember(Factory.getMemberService().getMember(1));
+		session = newSession();
+	}
+
+	// 현재 게시판은 1번 게시판으로 선택된 새 세션
+	private Session newSession() {
+		Session session = Factory.getSessionStore().create();
+		session.setCurrentBoard(Factory.getArticleService().getBoard(1));
+
+		return session;
 	}
 
 	public void start() {
@@ -172,7 +419,13 @@ class App {
 				break;
 			}
 
-			Request reqeust = new Request(command);
+			// 오래 안 써서 세션이 만료되었으면 새로 시작
+			if (Factory.getSessionStore().get(session.getToken()) == null) {
+				System.out.println("세션이 만료되었습니다.");
+				session = newSession();
+			}
+
+			Request reqeust = new Request(command, session);
 
 			if (reqeust.isValidRequest() == false) {
 				continue;
@@ -186,6 +439,9 @@ class App {
 		}
 
 		Factory.getScanner().close();
+		Factory.getApiServer().stop();
+		Factory.getDevServer().stop();
+		Factory.getDB().close();
 	}
 }
 
@@ -197,13 +453,16 @@ class Request {
 	private String arg1;
 	private String arg2;
 	private String arg3;
+	// 요청한 사용자의 세션
+	private Session session;
 
 	boolean isValidRequest() {
 		return actionName != null;
 	}
 
-	Request(String requestStr) {
+	Request(String requestStr, Session session) {
 		this.requestStr = requestStr;
+		this.session = session;
 		String[] requestStrBits = requestStr.split(" ");
 		this.controllerName = requestStrBits[0];
 
@@ -228,6 +487,10 @@ class Request {
 		return controllerName;
 	}
 
+	public Session getSession() {
+		return session;
+	}
+
 	public void setControllerName(String controllerName) {
 		this.controllerName = controllerName;
 	}
@@ -294,6 +557,145 @@ class ArticleController extends Controller {
 			actionDelete(reqeust);
 		} else if (reqeust.getActionName().equals("detail")) {
 			actionDetail(reqeust);
+		} else if (reqeust.getActionName().equals("search")) {
+			actionSearch(reqeust);
+		} else if (reqeust.getActionName().equals("like")) {
+			actionLike(reqeust);
+		} else if (reqeust.getActionName().equals("reply")) {
+			actionReply(reqeust);
+		} else if (reqeust.getActionName().equals("replies")) {
+			actionReplies(reqeust);
+		} else if (reqeust.getActionName().equals("deleteReply")) {
+			actionDeleteReply(reqeust);
+		} else if (reqeust.getActionName().equals("cache")) {
+			actionCache(reqeust);
+		}
+	}
+
+	// 목록 조회 캐시 상태
+	private void actionCache(Request reqeust) {
+		int size = 0;
+		long hitCount = 0;
+		long missCount = 0;
+
+		for (QueryCache<?> cache : articleService.getQueryCaches()) {
+			size += cache.size();
+			hitCount += cache.getHitCount();
+			missCount += cache.getMissCount();
+		}
+
+		System.out.printf("조회 캐시 : %d개, 적중 : %d, 실패 : %d\n", size, hitCount, missCount);
+	}
+
+	// article reply 3 : 3번 게시물에 댓글 작성
+	private void actionReply(Request reqeust) {
+		if (reqeust.getSession().getLoginedMember() == null) {
+			System.out.println("로그아웃 상태입니다");
+			return;
+		}
+
+		int articleId = Integer.parseInt(reqeust.getArg1());
+
+		if (articleService.getArticle(articleId) == null) {
+			System.out.println("없는 게시물");
+			return;
+		}
+
+		String body = "";
+
+		while (true) {
+			System.out.print("댓글 : ");
+			body = Factory.getScanner().nextLine();
+			if (body.length() == 0) {
+				continue;
+			}
+
+			break;
+		}
+
+		int memberId = reqeust.getSession().getLoginedMember().getId();
+		int newId = articleService.writeReply(articleId, memberId, body);
+
+		System.out.printf("%d번 댓글이 생성되었습니다.\n", newId);
+	}
+
+	// article replies 3 : 3번 게시물의 댓글 목록
+	private void actionReplies(Request reqeust) {
+		int articleId = Integer.parseInt(reqeust.getArg1());
+
+		if (articleService.getArticle(articleId) == null) {
+			System.out.println("없는 게시물");
+			return;
+		}
+
+		List<ArticleReply> replies = articleService.getReplies(articleId);
+
+		System.out.printf("== %d번 게시물 댓글 (%d개) ==\n", articleId, replies.size());
+
+		for (ArticleReply reply : replies) {
+			System.out.println(reply.toString());
+		}
+	}
+
+	// article deleteReply 5 : 5번 댓글 삭제
+	private void actionDeleteReply(Request reqeust) {
+		if (reqeust.getSession().getLoginedMember() == null) {
+			System.out.println("로그아웃 상태입니다");
+			return;
+		}
+
+		int id = Integer.parseInt(reqeust.getArg1());
+		int memberId = reqeust.getSession().getLoginedMember().getId();
+		int isId = articleService.deleteReply(memberId, id);
+
+		if (isId == -1) {
+			System.out.println("없는 댓글");
+		} else if (isId == -3) {
+			System.out.println("본인 댓글 아님");
+		} else {
+			System.out.printf("%d번 댓글 삭제 완료\n", isId);
+		}
+	}
+
+	// 게시물 추천
+	private void actionLike(Request reqeust) {
+		if (reqeust.getSession().getLoginedMember() == null) {
+			System.out.println("로그아웃 상태입니다");
+			return;
+		}
+
+		int id = Integer.parseInt(reqeust.getArg1());
+
+		if (articleService.like(id) == -1) {
+			System.out.println("없는 게시물");
+		} else {
+			System.out.printf("%d번 게시물 추천 (추천 : %d)\n", id, articleService.getLikeCount(id));
+		}
+	}
+
+	// article search 검색어 [페이지]
+	private void actionSearch(Request reqeust) {
+		String keyword = reqeust.getArg1();
+
+		if (keyword == null) {
+			System.out.println("검색어를 입력해주세요.");
+			return;
+		}
+
+		int page = reqeust.getArg2() == null ? 1 : Util.parsePositiveInt(reqeust.getArg2());
+
+		if (page < 1) {
+			System.out.println("페이지는 1 이상의 숫자로 입력해주세요.");
+			return;
+		}
+
+		SearchResult result = articleService.search(keyword, page);
+		int pageCount = (result.getTotalCount() + 9) / 10;
+
+		System.out.printf("== 검색 결과 : %s (%d개, %d/%d페이지) ==\n", keyword, result.getTotalCount(), page, pageCount);
+
+		for (Article article : result.getArticles()) {
+			System.out.println(article.toString());
 		}
 	}
 
@@ -301,26 +703,28 @@ class ArticleController extends Controller {
 		System.out.println("== 게시물 상세 ==");
 		int id = Integer.parseInt(reqeust.getArg1());
 
-		Article article = articleService.getArticle(id);
+		ArticleView article = articleService.getArticleView(id);
 
 		if (article == null) {
 			System.out.println("없는 게시물");
 		} else {
+			articleService.increaseHit(id);
 			System.out.println(article.toString());
+			System.out.printf("조회수 : %d, 추천 : %d\n", articleService.getHitCount(id), articleService.getLikeCount(id));
 		}
 	}
 
 	// 게시물 삭제
 	private void actionDelete(Request reqeust) {
-		if(Factory.getSession().getLoginedMember() != null) {
+		if(reqeust.getSession().getLoginedMember() != null) {
 			System.out.println("== 게시물 삭제 ==");
 			int id = Integer.parseInt(reqeust.getArg1());
 
 			// 현재 게시판 id 가져오기
-			int boardId = Factory.getSession().getCurrentBoard().getId();
+			int boardId = reqeust.getSession().getCurrentBoard().getId();
 
 			// 현재 로그인한 회원의 id 가져오기
-			int memberId = Factory.getSession().getLoginedMember().getId();
+			int memberId = reqeust.getSession().getLoginedMember().getId();
 
 			int isId = articleService.articleDelete(boardId, memberId, id);
 
@@ -341,7 +745,7 @@ class ArticleController extends Controller {
 
 	// 게시물 수정
 	private void actionModify(Request reqeust) {
-		if(Factory.getSession().getLoginedMember() != null) {
+		if(reqeust.getSession().getLoginedMember() != null) {
 			System.out.println("== 게시물 수정 ==");
 
 			int id = Integer.parseInt(reqeust.getArg1());
@@ -369,10 +773,10 @@ class ArticleController extends Controller {
 			}
 
 			// 현재 게시판 id 가져오기
-			int boardId = Factory.getSession().getCurrentBoard().getId();
+			int boardId = reqeust.getSession().getCurrentBoard().getId();
 
 			// 현재 로그인한 회원의 id 가져오기
-			int memberId = Factory.getSession().getLoginedMember().getId();
+			int memberId = reqeust.getSession().getLoginedMember().getId();
 
 			int newId = articleService.modify(boardId, memberId, title, body, id);
 
@@ -401,7 +805,7 @@ class ArticleController extends Controller {
 		if (isboard == null) {
 			System.out.println("존재하지 않는 게시판 입니다.");
 		} else {
-			Factory.getSession().setCurrentBoard(Factory.getArticleService().getBoard(isboard.getId()));
+			reqeust.getSession().setCurrentBoard(Factory.getArticleService().getBoard(isboard.getId()));
 			System.out.printf("{%s}게시판으로 이동 하였습니다\n", isboard.getName());
 		}
 	}
@@ -417,7 +821,6 @@ class ArticleController extends Controller {
 		} else if (isboard.getId() == 1) {
 			System.out.println("공지사항 게시판은 삭제할 수 없습니다.");
 		} else {
-			Factory.getSession().setLoginedMember(Factory.getMemberService().getMember(1));
 			System.out.printf("{%s}게시판 삭제 성공\n", isboard.getName());
 		}
 	}
@@ -440,46 +843,42 @@ class ArticleController extends Controller {
 		}
 	}
 
+	// article list : 전체 게시물 (100개씩 끊어서 읽는다)
+	// article list 2 : 2페이지 (한 페이지에 10개)
 	private void actionList(Request reqeust) {
-		String id = reqeust.getArg1();
-		int id_ = 0;
-		int count = 0;
-		int count_ = 0;
-		List<Article> articles = articleService.getArticles();
-
-		if (id == null && articles != null) {
-			for (Article article : articles) {
-				System.out.println(article.toString());
-			}
-		} else if (id != null && articles != null){
-			id_ = Integer.parseInt(id);
-			System.out.println("========================================{" + id + "}page========================================");
-			for (int j = 0; j < id_; j++) {
-				for(int i = count; i < count+10; i++) {
-					
-					if(articles.size() <= i) {
-						break;
-					}
-					
-					if(j == id_-1) {
-						System.out.println(articles.get(i).toString());
-					}
-					count_++;
+		String page = reqeust.getArg1();
+
+		if (page == null) {
+			int lastId = 0;
+
+			while (true) {
+				List<ArticleView> articles = articleService.getArticleViewsAfter(0, lastId, 100);
+
+				if (articles.isEmpty()) {
+					break;
+				}
+
+				for (ArticleView article : articles) {
+					System.out.println(article.toString());
 				}
-				count += count_;
+
+				lastId = articles.get(articles.size() - 1).getArticle().getId();
 			}
+
+			return;
+		}
+
+		int pageNo = Integer.parseInt(page);
+		System.out.println("========================================{" + page + "}page========================================");
+
+		for (ArticleView article : articleService.getArticleViews(0, (pageNo - 1) * 10, 10)) {
+			System.out.println(article.toString());
 		}
-		
-//		검색 만들기 : 
-//		1. arg2의 length()을 구한다
-//		2. 해당 페이지에 있는 게시글들(10) 전체 반복
-//		3. 제목(title)을 length()로 일일이 쪼갠다
-//		4. 그중 arg2와 일치하는 것이 있으면 출력할 수 있도록 한다.
 	}
 
 	private void actionWrite(Request reqeust) {
 		
-		if(Factory.getSession().getLoginedMember() != null) {
+		if(reqeust.getSession().getLoginedMember() != null) {
 			String title = "";
 			String body = "";
 
@@ -504,10 +903,10 @@ class ArticleController extends Controller {
 			}
 
 			// 현재 게시판 id 가져오기
-			int boardId = Factory.getSession().getCurrentBoard().getId();
+			int boardId = reqeust.getSession().getCurrentBoard().getId();
 
 			// 현재 로그인한 회원의 id 가져오기
-			int memberId = Factory.getSession().getLoginedMember().getId();
+			int memberId = reqeust.getSession().getLoginedMember().getId();
 			int newId = articleService.write(boardId, memberId, title, body);
 
 			System.out.printf("%d번 글이 생성되었습니다.\n", newId);
@@ -533,7 +932,46 @@ class BuildController extends Controller {
 			actionStartAutoSite(reqeust);
 		} else if (reqeust.getActionName().equals("stopAutoSite")) {
 			actionStoptAutoSite(reqeust);
+		} else if (reqeust.getActionName().equals("parallel")) {
+			actionParallel(reqeust);
+		} else if (reqeust.getActionName().equals("serve")) {
+			actionServe(reqeust);
+		} else if (reqeust.getActionName().equals("stopServe")) {
+			actionStopServe(reqeust);
+		}
+	}
+
+	// build serve : site 폴더에 쓰지 않고 요청받은 페이지만 그때 그려서 보여주는 개발 서버 (기본 포트 8000)
+	// build serve 9000 : 포트 지정
+	private void actionServe(Request reqeust) {
+		DevServer devServer = Factory.getDevServer();
+		int port = reqeust.getArg1() == null ? Integer.getInteger("ssg.serve.port", 8000)
+				: Integer.parseInt(reqeust.getArg1());
+
+		if (devServer.start(port)) {
+			System.out.printf("개발 서버 시작 : http://localhost:%d/home/index.html\n", port);
+		} else {
+			System.out.println("개발 서버를 시작할 수 없습니다.");
+		}
+	}
+
+	private void actionStopServe(Request reqeust) {
+		DevServer devServer = Factory.getDevServer();
+		PageCache pageCache = devServer.getPageCache();
+
+		devServer.stop();
+		System.out.printf("개발 서버 종료 (캐시 : %d페이지 %dKB, 적중 : %d, 실패 : %d)\n", pageCache.size(),
+				pageCache.getTotalBytes() / 1024, pageCache.getHitCount(), pageCache.getMissCount());
+	}
+
+	// build parallel : 현재 설정 보기
+	// build parallel 4 : 페이지를 동시에 4개씩 생성 (1이면 차례로)
+	private void actionParallel(Request reqeust) {
+		if (reqeust.getArg1() != null) {
+			buildService.setParallelism(Integer.parseInt(reqeust.getArg1()));
 		}
+
+		System.out.printf("빌드 동시 작업 수 : %d\n", buildService.getParallelism());
 	}
 
 	private void actionStoptAutoSite(Request reqeust) {
@@ -544,8 +982,74 @@ class BuildController extends Controller {
 		buildService.startWork();
 	}
 
+	// build site : 바뀐 페이지만 다시 생성 (조회수/추천수만 바뀐 페이지는 다시 쓰지 않는다)
+	// build site full : 전체 다시 생성
 	private void actionSite(Request reqeust) {
-		buildService.buildSite();
+		boolean incremental = "full".equals(reqeust.getArg1()) == false;
+		// 모아둔 쓰기를 먼저 디스크에 쓴다
+		Factory.getDB().flush();
+		SiteBuild build = buildService.buildSite(incremental);
+
+		System.out.printf("바뀐 데이터 : %d개, 생성한 파일 : %d개, 삭제한 파일 : %d개\n", build.getChangedEntityCount(),
+				build.getWrittenPageCount(), build.getDeletedPageCount());
+	}
+}
+
+class DBController extends Controller {
+	private DB db;
+
+	DBController() {
+		db = Factory.getDB();
+	}
+
+	@Override
+	void doAction(Request reqeust) {
+		if (reqeust.getActionName().equals("backup")) {
+			actionBackup(reqeust);
+		} else if (reqeust.getActionName().equals("restore")) {
+			actionRestore(reqeust);
+		} else if (reqeust.getActionName().equals("shard")) {
+			actionShard(reqeust);
+		}
+	}
+
+	// db shard : db 테이블 파일들과 사이트 게시물 페이지를 하위 폴더 구조로 옮긴다
+	// 사이트는 다시 빌드하면서 새 경로로 만들고 예전 경로의 파일은 지운다
+	private void actionShard(Request reqeust) {
+		int movedCount = db.migrateToShards();
+		SiteLayout.setSharded();
+		SiteBuild build = Factory.getBuildService().buildSite(true);
+
+		System.out.printf("row 파일 %d개 이동, 사이트 파일 %d개 생성, %d개 삭제\n", movedCount, build.getWrittenPageCount(),
+				build.getDeletedPageCount());
+	}
+
+	// db backup : 지난 백업 이후 바뀐 row만 백업 (처음이면 전체)
+	// db backup full : 전체 백업
+	private void actionBackup(Request reqeust) {
+		boolean full = "full".equals(reqeust.getArg1());
+		String archiveName = db.backup(full);
+
+		System.out.printf("백업 시작 : backup/%s\n", archiveName);
+	}
+
+	// db restore <백업파일명> [복원할 폴더, 기본 db_restore]
+	private void actionRestore(Request reqeust) {
+		String archiveName = reqeust.getArg1();
+		String targetDirPath = reqeust.getArg2() == null ? "db_restore" : reqeust.getArg2();
+
+		if (archiveName == null) {
+			System.out.println("백업 파일명을 입력해주세요.");
+			return;
+		}
+
+		int rowCount = db.restore(archiveName, targetDirPath);
+
+		if (rowCount == -1) {
+			System.out.println("백업 파일이 없거나 읽을 수 없습니다. (또는 복원할 폴더가 이미 있습니다.)");
+		} else {
+			System.out.printf("%s 에 %d개 row 복원 완료\n", targetDirPath, rowCount);
+		}
 	}
 }
 
@@ -666,9 +1170,10 @@ class MemberController extends Controller {
 			}
 		}
 		int rs = memberService.join(loginId, loginPw, name);
-		Factory.getSession().setLoginedMember(Factory.getMemberService().getMember(rs));
 
+		// 가입에 성공했을 때만 로그인
 		if (rs != -1) {
+			reqeust.getSession().setLoginedMember(Factory.getMemberService().getMember(rs));
 			System.out.println("성공하였습니다.");
 		} else if (rs == -1) {
 			System.out.println("입력하신 로그인 아이디는 이미 사용중입니다.");
@@ -676,7 +1181,7 @@ class MemberController extends Controller {
 	}
 
 	private void actionWhoami(Request reqeust) {
-		Member loginedMember = Factory.getSession().getLoginedMember();
+		Member loginedMember = reqeust.getSession().getLoginedMember();
 
 		if (loginedMember == null) {
 			System.out.println("나그네");
@@ -687,7 +1192,7 @@ class MemberController extends Controller {
 	}
 
 	private void actionLogin(Request reqeust) {
-		Member loginedMember = Factory.getSession().getLoginedMember();
+		Member loginedMember = reqeust.getSession().getLoginedMember();
 
 		if (loginedMember == null) {
 			System.out.printf("로그인 아이디 : ");
@@ -702,7 +1207,7 @@ class MemberController extends Controller {
 				System.out.println("일치하는 회원이 없습니다.");
 			} else {
 				System.out.println(member.getName() + "님 환영합니다.");
-				Factory.getSession().setLoginedMember(member);
+				reqeust.getSession().setLoginedMember(member);
 			}
 		} else {
 			System.out.printf("현재 %s님 로그인 상태입니다.\n", loginedMember.getName());
@@ -711,10 +1216,10 @@ class MemberController extends Controller {
 	}
 
 	private void actionLogout(Request reqeust) {
-		Member loginedMember = Factory.getSession().getLoginedMember();
+		Member loginedMember = reqeust.getSession().getLoginedMember();
 
 		if (loginedMember != null) {
-			Session session = Factory.getSession();
+			Session session = reqeust.getSession();
 			System.out.println("로그아웃 되었습니다.");
 			session.setLoginedMember(null);
 		}
@@ -722,647 +1227,5864 @@ class MemberController extends Controller {
 	}
 }
 
-// Service
-class BuildService {
-	private static ArticleService articleService;
-	private static boolean workStarted;
-	private static MemberService memberService;
+// server start : HTTP API 서버 시작 (기본 포트 8080, -Dssg.http.port 또는 server start 9090)
+// server stop : 서버 종료
+class ServerController extends Controller {
+	private ApiServer apiServer;
 
-	BuildService() {
-		articleService = Factory.getArticleService();
-		memberService = Factory.getMemberService();
+	ServerController() {
+		apiServer = Factory.getApiServer();
 	}
 
-	static {
-		workStarted = false;
+	void doAction(Request reqeust) {
+		if (reqeust.getActionName().equals("start")) {
+			actionStart(reqeust);
+		} else if (reqeust.getActionName().equals("stop")) {
+			actionStop(reqeust);
+		}
 	}
 
-	public void buildSite() {
-		Util.makeDir("site");
-		Util.makeDir("site/article");
-		Util.makeDir("site/home");
-		Util.makeDir("site/stat");
-		Util.makeDir("site/resource");
-		
-		String css = Util.getFileContents("site_template/resource/common.css");
-		String js = Util.getFileContents("site_template/resource/common.js");
-		String log = Util.getFileContents("site_template/resource/log.html");
-		String home = Util.getFileContents("site_template/home/index.html");
-		String stat = Util.getFileContents("site_template/stat/index.html");
-		Util.writeFileContents("site/resource/common.css", css);
-		Util.writeFileContents("site/resource/common.js", js);
-		Util.writeFileContents("site/resource/log.html", log);
-		
-		
+	private void actionStart(Request reqeust) {
+		int port = reqeust.getArg1() == null ? Integer.getInteger("ssg.http.port", 8080)
+				: Integer.parseInt(reqeust.getArg1());
 
-		String head = Util.getFileContents("site_template/part/head.html");
-		String foot = Util.getFileContents("site_template/part/foot.html");
-
-		// 각 게시판 별 게시물리스트 페이지 생성
-		List<Board> boards = articleService.getBoards();
-
-		String middle = "";	
-		for(Board board : boards) {
-			String fileLink = board.getCode() + "-list-1.html";
-			String fileName = board.getCode();
-			middle += "<li><a href=\"../article/" + fileLink + "\">" + fileName + "</a></li>";
-		}
-		home = home.replace("${LI}", middle);
-		stat = stat.replace("${LI}", middle);
-		Util.writeFileContents("site/home/index.html", home);
-		Util.writeFileContents("site/stat/index.html", stat);
-		
-		
-		middle = "";	
-		for(Board board : boards) {
-			String fileLink = board.getCode() + "-list-1.html";
-			String fileName = board.getCode();
-			middle += "<li><a href=\"" + fileLink + "\">" + fileName + "</a></li>";
+		if (apiServer.start(port)) {
+			System.out.printf("서버 시작 : http://localhost:%d/api (%s)\n", port, apiServer.getExecutorName());
+		} else {
+			System.out.println("서버를 시작할 수 없습니다.");
 		}
-//		
-		for (Board board : boards) {
-			head = Util.getFileContents("site_template/part/head.html");
-			foot = Util.getFileContents("site_template/part/foot.html");
-			String fileName = board.getCode() + "-list-1.html";
+	}
 
-			String html = "";
+	private void actionStop(Request reqeust) {
+		apiServer.stop();
+		System.out.println("서버 종료");
+	}
+}
 
-			List<Article> articles = articleService.getArticlesByBoardCode(board.getCode());
+// ApiServer
+// JDK 내장 HttpServer로 CLI와 같은 기능을 JSON으로 제공한다.
+// 요청마다 가상 쓰레드 하나 (가상 쓰레드가 없는 JDK면 필요할 때 늘어나는 쓰레드풀)
+// 경로 -> 처리 함수는 routes에 "<METHOD> <경로>"로 등록한다.
+// 파라미터는 쿼리스트링이나 form(application/x-www-form-urlencoded) 본문으로 받는다.
+// 글쓰기/수정/삭제와 사이트 빌드는 로그인이 필요하다. (로그인하면 받는 토큰을 Authorization: Bearer <토큰> 으로 보낸다)
+class ApiServer {
+	private static final int BACKLOG = 4096;
+	// 요청 본문 최대 크기 (넘으면 413)
+	static final int MAX_BODY_BYTES = 1024 * 1024;
+	// 가상 쓰레드가 없을 때 (JDK 21 미만) 쓰는 작업 쓰레드 수와 대기열 크기
+	private static final int MAX_WORKER_THREADS = 200;
+	private static final int MAX_QUEUED_REQUESTS = 1000;
+
+	interface Handler {
+		ApiResponse handle(ApiRequest request);
+	}
+
+	private Map<String, Handler> routes = new HashMap<>();
+	private HttpServer server;
+	private ExecutorService executor;
+	private ArticleService articleService;
+	private MemberService memberService;
+	private BuildService buildService;
 
-			String template = Util.getFileContents("site_template/article/list.html");
+	ApiServer() {
+		articleService = Factory.getArticleService();
+		memberService = Factory.getMemberService();
+		buildService = Factory.getBuildService();
 
-			int count = 0;
-			for (Article article : articles) {
-				Member member = memberService.getMember(article.getMemberId());
-				
-				count++;
-				html += "<tr>";
-				html += "<td>" + count + "</td>";
-//				html += "<td>" + article.getId() + "</td>";
-				html += "<td>" + article.getRegDate() + "</td>";
-				html += "<td>" +  member.getName() + "</td>";
-				html += "<td><a href=\"" + article.getId() + ".html\">" + article.getTitle() + "</a></td>";
-				html += "</tr>";
-			}
+		routes.put("GET /api/article/list", this::articleList);
+		routes.put("GET /api/article/detail", this::articleDetail);
+		routes.put("POST /api/article/write", this::articleWrite);
+		routes.put("POST /api/article/modify", this::articleModify);
+		routes.put("POST /api/article/delete", this::articleDelete);
+		routes.put("POST /api/member/login", this::memberLogin);
+		routes.put("POST /api/member/logout", this::memberLogout);
+		routes.put("POST /api/build/site", this::buildSite);
+	}
 
-			html = template.replace("${TR}", html);
-			
-			head = head.replace("${LI}", middle);
-			
-			html = head + html + foot;
+	public synchronized boolean start(int port) {
+		if (server != null) {
+			return false;
+		}
 
-			Util.writeFileContents("site/article/" + fileName, html);
+		try {
+			server = HttpServer.create(new InetSocketAddress(getBindAddress(), port), BACKLOG);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
 		}
 
-		// 게시물 별 파일 생성
-		List<Article> articles = articleService.getArticles();
+		executor = newExecutor("api-worker");
+		server.setExecutor(executor);
+		server.createContext("/api/", this::handle);
+		server.start();
 
-		int count = 0;
-		for (Article article : articles) {
-			String html = "";
-
-			html += "<div>제목 : " + article.getTitle() + "</div>";
-			html += "<div>내용 : " + article.getBody() + "</div>";
-			html += "<div>작성자 : " + memberService.getMember(article.getMemberId()).getName() + "</div>";
-			html += "<div><a href=\"" + (article.getId() - 1) + ".html\">이전글</a></div>";
-			html += "<div><a href=\"" + (article.getId() + 1) + ".html\">다음글</a></div>";
-			
-			//이전페이지 다음페이지 없을경우.. 좀드릅지만 이렇게라도...
-			if(count == 0) {
-				html = "";
-				html += "<div>제목 : " + article.getTitle() + "</div>";
-				html += "<div>내용 : " + article.getBody() + "</div>";
-				html += "<div>작성자 : " + memberService.getMember(article.getMemberId()).getName() + "</div>";
-				html += "<div><a href=\"#\">이전글</a></div>";
-				html += "<div><a href=\"" + (article.getId() + 1) + ".html\">다음글</a></div>";
-			} else if(count == articles.size()-1) {
-				html = "";
-				html += "<div>제목 : " + article.getTitle() + "</div>";
-				html += "<div>내용 : " + article.getBody() + "</div>";
-				html += "<div>작성자 : " + memberService.getMember(article.getMemberId()).getName() + "</div>";
-				html += "<div><a href=\"" + (article.getId() - 1) + ".html\">이전글</a></div>";
-				html += "<div><a href=\"#\">다음글</a></div>";
-			}
-			count++;
-			////
+		return true;
+	}
+
+	public synchronized void stop() {
+		if (server == null) {
+			return;
+		}
+
+		server.stop(0);
+		executor.shutdown();
+		server = null;
+		executor = null;
+	}
+
+	public String getExecutorName() {
+		return executor == null ? "" : executor.getClass().getSimpleName();
+	}
+
+	// 기본은 이 컴퓨터에서만 접속 가능 (-Dssg.http.host=0.0.0.0 이면 모든 주소)
+	static InetAddress getBindAddress() {
+		String host = System.getProperty("ssg.http.host");
 
-			html = head + html + foot;
+		if (host == null) {
+			return InetAddress.getLoopbackAddress();
+		}
+
+		try {
+			return InetAddress.getByName(host);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return InetAddress.getLoopbackAddress();
+		}
+	}
 
-			Util.writeFileContents("site/article/" + article.getId() + ".html", html);
-			
+	// JDK 21 이상이면 가상 쓰레드 (컴파일은 17에서도 되도록 리플렉션으로 찾는다)
+	static ExecutorService newExecutor(String threadName) {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			// 쓰레드 수와 대기열을 제한하고, 다 차면 받는 쪽(HttpServer의 dispatcher)이 직접 처리하게 해서
+			// 새 연결을 받는 속도를 늦춘다 (쓰레드가 끝없이 늘지 않도록)
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_WORKER_THREADS, MAX_WORKER_THREADS, 60,
+					TimeUnit.SECONDS, new LinkedBlockingQueue<>(MAX_QUEUED_REQUESTS), runnable -> {
+						Thread thread = new Thread(runnable, threadName);
+						thread.setDaemon(true);
+						return thread;
+					}, new ThreadPoolExecutor.CallerRunsPolicy());
+			executor.allowCoreThreadTimeOut(true);
+
+			return executor;
 		}
 	}
 
-	public void startWork() {
-		workStarted = true;
-		new Thread(() -> {
-			while (workStarted) {
-				try {
-//					System.out.println("=build site=");
-					buildSite();
-					Thread.sleep(10000);
-				} catch (InterruptedException e) {
+	private void handle(HttpExchange exchange) throws IOException {
+		ApiResponse response;
 
-				}
+		try {
+			ApiRequest request = new ApiRequest(exchange);
+			Handler handler = routes.get(request.getMethod() + " " + request.getPath());
+
+			if (request.isBodyTooLarge()) {
+				response = ApiResponse.fail(413, "요청 내용이 너무 큽니다.");
+			} else if (handler == null) {
+				response = ApiResponse.fail(404, "없는 요청입니다.");
+			} else {
+				response = handler.handle(request);
 			}
-		}).start();
+		} catch (NumberFormatException e) {
+			response = ApiResponse.fail(400, "숫자를 입력해주세요.");
+		} catch (Exception e) {
+			e.printStackTrace();
+			response = ApiResponse.fail(500, "처리 중 오류가 발생했습니다.");
+		}
+
+		byte[] body = Util.toJsonBytes(response.getBody());
+
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+		exchange.sendResponseHeaders(response.getStatus(), body.length);
+
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
 	}
 
-	public void stopWork() {
-//		System.out.println("=build site Stop=");
-		workStarted = false;
+	// GET /api/article/list?board=free&page=1 (board가 없으면 전체)
+	private ApiResponse articleList(ApiRequest request) {
+		int boardId = 0;
+		String boardCode = request.getParam("board");
+
+		if (boardCode != null) {
+			Board board = articleService.getBoardByCode(boardCode);
+
+			if (board == null) {
+				return ApiResponse.fail(404, "없는 게시판");
+			}
+
+			boardId = board.getId();
+		}
+
+		int page = request.getIntParam("page", 1);
+		List<Map<String, Object>> articles = new ArrayList<>();
+
+		for (ArticleView view : articleService.getArticleViews(boardId, (page - 1) * 10, 10)) {
+			articles.add(toJson(view));
+		}
+
+		Map<String, Object> data = new LinkedHashMap<>();
+		data.put("page", page);
+		data.put("totalCount", articleService.getArticleCount(boardId));
+		data.put("articles", articles);
+
+		return ApiResponse.success("", data);
 	}
 
-}
+	// GET /api/article/detail?id=1
+	private ApiResponse articleDetail(ApiRequest request) {
+		int id = request.getIntParam("id", 0);
+		ArticleView view = articleService.getArticleView(id);
 
-class ArticleService {
-	private ArticleDao articleDao;
+		if (view == null) {
+			return ApiResponse.fail(404, "없는 게시물");
+		}
 
-	ArticleService() {
-		articleDao = Factory.getArticleDao();
+		articleService.increaseHit(id);
+
+		Map<String, Object> data = toJson(view);
+		List<Map<String, Object>> replies = new ArrayList<>();
+
+		for (ArticleReply reply : articleService.getReplies(id)) {
+			Map<String, Object> replyJson = new LinkedHashMap<>();
+			Member writer = memberService.getMember(reply.getMemberId());
+
+			replyJson.put("id", reply.getId());
+			replyJson.put("regDate", reply.getRegDate());
+			replyJson.put("writerName", writer == null ? "" : writer.getName());
+			replyJson.put("body", reply.getBody());
+			replies.add(replyJson);
+		}
+
+		data.put("replies", replies);
+
+		return ApiResponse.success("", data);
 	}
 
-	public Article getArticle(int id) {
-		return articleDao.getArticle(id);
+	// POST /api/article/write (board, title, body)
+	private ApiResponse articleWrite(ApiRequest request) {
+		Member member = request.getLoginedMember();
+
+		if (member == null) {
+			return ApiResponse.fail(401, "로그인 후 이용해주세요.");
+		}
+
+		Board board = articleService.getBoardByCode(request.getParam("board", ""));
+		String title = request.getParam("title", "").trim();
+		String body = request.getParam("body", "").trim();
+
+		if (board == null) {
+			return ApiResponse.fail(404, "없는 게시판");
+		}
+
+		if (title.length() == 0 || body.length() == 0) {
+			return ApiResponse.fail(400, "제목과 내용을 입력해주세요.");
+		}
+
+		int id = articleService.write(board.getId(), member.getId(), title, body);
+
+		return ApiResponse.success(id + "번 글이 생성되었습니다.", toJson(articleService.getArticleView(id)));
 	}
 
-	// 삭제 (admin은 안했다.)
-	public int articleDelete(int boardId, int memberId, int id) {
-		Article article = articleDao.getArticle(id);
+	// POST /api/article/modify (id, title, body)
+	private ApiResponse articleModify(ApiRequest request) {
+		Member member = request.getLoginedMember();
+
+		if (member == null) {
+			return ApiResponse.fail(401, "로그인 후 이용해주세요.");
+		}
+
+		int id = request.getIntParam("id", 0);
+		Article article = articleService.getArticle(id);
+		String title = request.getParam("title", "").trim();
+		String body = request.getParam("body", "").trim();
 
 		if (article == null) {
-			return -1;
+			return ApiResponse.fail(404, "없는 게시물");
 		}
 
-		if (article.getBoardId() != boardId) {
-			return -2;
+		if (title.length() == 0 || body.length() == 0) {
+			return ApiResponse.fail(400, "제목과 내용을 입력해주세요.");
 		}
 
-		if (article.getMemberId() != memberId) {
-			return -3;
+		int rs = articleService.modify(article.getBoardId(), member.getId(), title, body, id);
+
+		if (rs == -1) {
+			return ApiResponse.fail(404, "없는 게시물");
+		} else if (rs == -3) {
+			return ApiResponse.fail(403, "본인 게시물 아님");
 		}
 
-		return articleDao.articleDelete(id);
+		return ApiResponse.success(id + "번 게시물 수정 완료", toJson(articleService.getArticleView(id)));
 	}
 
-	// 수정 (admin은 안했다.)
-	public int modify(int boardId, int memberId, String title, String body, int id) {
-		Article article = articleDao.getArticle(id);
+	// POST /api/article/delete (id)
+	private ApiResponse articleDelete(ApiRequest request) {
+		Member member = request.getLoginedMember();
+
+		if (member == null) {
+			return ApiResponse.fail(401, "로그인 후 이용해주세요.");
+		}
+
+		int id = request.getIntParam("id", 0);
+		Article article = articleService.getArticle(id);
 
 		if (article == null) {
-			return -1;
+			return ApiResponse.fail(404, "없는 게시물");
 		}
 
-		if (article.getBoardId() != boardId) {
-			return -2;
+		if (articleService.articleDelete(article.getBoardId(), member.getId(), id) == -3) {
+			return ApiResponse.fail(403, "본인 게시물 아님");
 		}
 
-		if (article.getMemberId() != memberId) {
-			return -3;
+		return ApiResponse.success(id + "번 게시물 삭제 완료", null);
+	}
+
+	// POST /api/member/login (loginId, loginPw)
+	private ApiResponse memberLogin(ApiRequest request) {
+		Member member = memberService.getMemberByLoginIdAndLoginPw(request.getParam("loginId", ""),
+				request.getParam("loginPw", ""));
+
+		if (member == null) {
+			return ApiResponse.fail(401, "일치하는 회원이 없습니다.");
 		}
 
-		Article modifyArticle = new Article(boardId, memberId, title, body);
-		return articleDao.modifyArticle(modifyArticle, id);
+		Session session = Factory.getSessionStore().create();
+		session.setLoginedMember(member);
+
+		Map<String, Object> data = toJson(member);
+		data.put("token", session.getToken());
+
+		return ApiResponse.success(member.getName() + "님 환영합니다.", data);
 	}
 
-	public List<Article> getArticlesByBoardCode(String code) {
-		return articleDao.getArticlesByBoardCode(code);
+	// POST /api/member/logout
+	private ApiResponse memberLogout(ApiRequest request) {
+		Session session = request.getSession();
+
+		if (session == null) {
+			return ApiResponse.fail(401, "로그인 후 이용해주세요.");
+		}
+
+		Factory.getSessionStore().remove(session.getToken());
+
+		return ApiResponse.success("로그아웃 되었습니다.", null);
 	}
 
-	public List<Board> getBoards() {
-		return articleDao.getBoards();
+	// POST /api/build/site (full=true 이면 전체 다시 생성), 로그인 필요
+	private ApiResponse buildSite(ApiRequest request) {
+		if (request.getLoginedMember() == null) {
+			return ApiResponse.fail(401, "로그인 후 이용해주세요.");
+		}
+
+		boolean incremental = "true".equals(request.getParam("full")) == false;
+
+		Factory.getDB().flush();
+		SiteBuild build = buildService.buildSite(incremental);
+
+		Map<String, Object> data = new LinkedHashMap<>();
+		data.put("changedEntityCount", build.getChangedEntityCount());
+		data.put("writtenPageCount", build.getWrittenPageCount());
+		data.put("deletedPageCount", build.getDeletedPageCount());
+
+		return ApiResponse.success("", data);
 	}
 
-	// 게시판 삭제
-	public Board deleteBoard(String boardCode) {
-		Board board = articleDao.getBoard(boardCode);
+	// 비밀번호 등은 내보내지 않도록 필요한 값만 담는다
+	private Map<String, Object> toJson(ArticleView view) {
+		Article article = view.getArticle();
+		Map<String, Object> json = new LinkedHashMap<>();
 
-		if (board == null) {
+		json.put("id", article.getId());
+		json.put("regDate", article.getRegDate());
+		json.put("boardCode", view.getBoardCode());
+		json.put("writerName", view.getWriterName());
+		json.put("title", article.getTitle());
+		json.put("body", article.getBody());
+		json.put("hitCount", articleService.getHitCount(article.getId()));
+		json.put("likeCount", articleService.getLikeCount(article.getId()));
+
+		return json;
+	}
+
+	private Map<String, Object> toJson(Member member) {
+		Map<String, Object> json = new LinkedHashMap<>();
+
+		json.put("id", member.getId());
+		json.put("loginId", member.getLoginId());
+		json.put("name", member.getName());
+
+		return json;
+	}
+}
+
+// ApiRequest
+// HTTP 요청 하나 (경로, 파라미터, 세션)
+class ApiRequest {
+	private String method;
+	private String path;
+	private Map<String, String> params = new HashMap<>();
+	// 토큰이 없거나 만료되었으면 null
+	private Session session;
+	// 본문이 ApiServer.MAX_BODY_BYTES 보다 큰지
+	private boolean bodyTooLarge;
+
+	ApiRequest(HttpExchange exchange) throws IOException {
+		method = exchange.getRequestMethod();
+		path = exchange.getRequestURI().getPath();
+
+		parseParams(exchange.getRequestURI().getRawQuery());
+
+		if (method.equals("POST")) {
+			byte[] body = readBody(exchange);
+
+			if (body == null) {
+				bodyTooLarge = true;
+			} else {
+				parseParams(new String(body, StandardCharsets.UTF_8));
+			}
+		}
+
+		session = getSessionFromAuthorization(exchange.getRequestHeaders().getFirst("Authorization"));
+	}
+
+	// 최대 크기 + 1 바이트까지만 읽는다. 넘으면 null (Content-Length가 이미 넘으면 읽지도 않는다)
+	private static byte[] readBody(HttpExchange exchange) throws IOException {
+		String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+
+		// parsePositiveInt는 10자리 이상이면 0이므로 그것도 너무 큰 것으로 본다
+		if (contentLength != null && contentLength.equals("0") == false
+				&& (Util.parsePositiveInt(contentLength) == 0 || Util.parsePositiveInt(contentLength) > ApiServer.MAX_BODY_BYTES)) {
 			return null;
 		}
 
-		articleDao.deleteBoard(board.getId());
-		return board;
+		byte[] body = exchange.getRequestBody().readNBytes(ApiServer.MAX_BODY_BYTES + 1);
+
+		return body.length > ApiServer.MAX_BODY_BYTES ? null : body;
 	}
 
-	// 게시판 이동
-	public Board moveBoard(String boardCode) {
-		Board board = articleDao.getBoard(boardCode);
+	// a=1&b=2
+	private void parseParams(String paramsStr) {
+		if (paramsStr == null || paramsStr.length() == 0) {
+			return;
+		}
 
-		if (board == null) {
+		for (String param : paramsStr.split("&")) {
+			int pos = param.indexOf('=');
+
+			if (pos > 0) {
+				params.put(URLDecoder.decode(param.substring(0, pos), StandardCharsets.UTF_8),
+						URLDecoder.decode(param.substring(pos + 1), StandardCharsets.UTF_8));
+			}
+		}
+	}
+
+	// Bearer <토큰>
+	private static Session getSessionFromAuthorization(String authorization) {
+		if (authorization == null || authorization.startsWith("Bearer ") == false) {
 			return null;
 		}
 
-		return board;
+		return Factory.getSessionStore().get(authorization.substring(7).trim());
 	}
 
-	// Id를 이용하여 Board를 받아온다
-	public Board getBoard(int id) {
-		return articleDao.getBoard(id);
+	public String getMethod() {
+		return method;
 	}
 
-	// 게시판 만들기
-	public int makeBoard(String name, String code) {
-		Board oldBoard = articleDao.getBoardByCode(code);
+	public String getPath() {
+		return path;
+	}
 
-		if (oldBoard != null) {
-			return -1;
-		}
+	public String getParam(String name) {
+		return params.get(name);
+	}
 
-		Board board = new Board(name, code);
-		return articleDao.saveBoard(board);
+	public String getParam(String name, String defaultValue) {
+		return params.getOrDefault(name, defaultValue);
 	}
 
-	// 게시글 쓰기
-	public int write(int boardId, int memberId, String title, String body) {
-		Article article = new Article(boardId, memberId, title, body);
-		return articleDao.save(article);
+	public int getIntParam(String name, int defaultValue) {
+		String value = params.get(name);
+		return value == null ? defaultValue : Integer.parseInt(value);
 	}
 
-	public List<Article> getArticles() {
-		return articleDao.getArticles();
+	public Session getSession() {
+		return session;
+	}
+
+	public boolean isBodyTooLarge() {
+		return bodyTooLarge;
 	}
 
+	public Member getLoginedMember() {
+		return session == null ? null : session.getLoginedMember();
+	}
 }
 
-class MemberService {
-	private MemberDao memberDao;
+// ApiResponse
+// HTTP 상태 코드 + {"success":..., "msg":..., "data":...}
+class ApiResponse {
+	private int status;
+	private Map<String, Object> body = new LinkedHashMap<>();
 
-	MemberService() {
-		memberDao = Factory.getMemberDao();
+	private ApiResponse(int status, boolean success, String msg, Object data) {
+		this.status = status;
+		body.put("success", success);
+		body.put("msg", msg);
+		body.put("data", data);
 	}
 
-	public boolean isUsedLoginId(String loginId) {
-		Member member = memberDao.getMemberByLoginId(loginId);
+	public static ApiResponse success(String msg, Object data) {
+		return new ApiResponse(200, true, msg, data);
+	}
 
-		if (member == null) {
+	public static ApiResponse fail(int status, String msg) {
+		return new ApiResponse(status, false, msg, null);
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public Map<String, Object> getBody() {
+		return body;
+	}
+}
+
+// DevServer
+// build serve : site 폴더와 같은 경로로 페이지를 보여주지만, 파일로 쓰지 않고 요청이 올 때 그린다.
+// 그린 페이지는 PageCache 에 담아두고, 데이터가 바뀌었다는 알림을 받으면 그 데이터가 들어간 페이지만 지운다.
+// 응답에는 ETag/Last-Modified 를 달고, 브라우저가 가진 것과 같으면 304 (본문 없음)
+// resource/* 는 site_template/resource 파일을 그대로 보낸다.
+class DevServer {
+	private static final int BACKLOG = 1024;
+	private static final DateTimeFormatter HTTP_DATE_FORMAT = DateTimeFormatter.RFC_1123_DATE_TIME;
+
+	private HttpServer server;
+	private ExecutorService executor;
+	private EventBus.Listener listener;
+	private PageCache pageCache;
+	private ArticleService articleService;
+	private BuildService buildService;
+
+	DevServer() {
+		articleService = Factory.getArticleService();
+		buildService = Factory.getBuildService();
+		// 캐시 크기 (-Dssg.serve.cacheMB, 기본 64MB)
+		pageCache = new PageCache(Long.getLong("ssg.serve.cacheMB", 64) * 1024 * 1024);
+	}
+
+	public synchronized boolean start(int port) {
+		if (server != null) {
+			return false;
+		}
+
+		try {
+			server = HttpServer.create(new InetSocketAddress(ApiServer.getBindAddress(), port), BACKLOG);
+		} catch (IOException e) {
+			e.printStackTrace();
 			return false;
 		}
 
+		// 서버가 꺼져 있던 동안 바뀐 것은 알 수 없으므로 비우고 시작
+		pageCache.clear();
+		listener = this::onChange;
+		Factory.getEventBus().subscribe(listener);
+
+		executor = ApiServer.newExecutor("serve-worker");
+		server.setExecutor(executor);
+		server.createContext("/", this::handle);
+		server.start();
+
 		return true;
 	}
 
-	public Member getMemberByLoginIdAndLoginPw(String loginId, String loginPw) {
-		return memberDao.getMemberByLoginIdAndLoginPw(loginId, loginPw);
+	public synchronized void stop() {
+		if (server == null) {
+			return;
+		}
+
+		Factory.getEventBus().unsubscribe(listener);
+		listener = null;
+		server.stop(0);
+		executor.shutdown();
+		server = null;
+		executor = null;
 	}
 
-	public int join(String loginId, String loginPw, String name) {
-		Member oldMember = memberDao.getMemberByLoginId(loginId);
+	public PageCache getPageCache() {
+		return pageCache;
+	}
 
-		if (oldMember != null) {
-			return -1;
+	// 바뀐 데이터가 들어간 페이지만 캐시에서 지운다 (태그는 BuildService.renderPage 에서 단다)
+	private void onChange(String tableName, int id) {
+		if (tableName.equals("article")) {
+			Article article = articleService.getArticle(id);
+			pageCache.invalidate("article:" + id);
+
+			if (article == null) {
+				pageCache.invalidate("list");
+			} else {
+				pageCache.invalidate("list:" + article.getBoardId());
+				pageCache.invalidate("last:" + article.getBoardId());
+			}
+		} else if (tableName.equals("reply")) {
+			ArticleReply reply = articleService.getReply(id);
+			pageCache.invalidate("reply:" + id);
+
+			if (reply != null) {
+				pageCache.invalidate("article:" + reply.getArticleId());
+			}
+		} else if (tableName.equals("member")) {
+			pageCache.invalidate("member:" + id);
+		} else if (tableName.equals("board")) {
+			pageCache.invalidate("board");
+		} else {
+			pageCache.clear();
 		}
+	}
 
-		Member member = new Member(loginId, loginPw, name);
-		return memberDao.save(member);
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			String method = exchange.getRequestMethod();
+			String path = exchange.getRequestURI().getPath();
+
+			if (method.equals("GET") == false && method.equals("HEAD") == false) {
+				sendText(exchange, 405, "GET 요청만 받습니다.");
+			} else if (path.equals("/")) {
+				exchange.getResponseHeaders().set("Location", "/home/index.html");
+				exchange.sendResponseHeaders(302, -1);
+				exchange.close();
+			} else if (path.startsWith("/resource/")) {
+				sendResource(exchange, path.substring("/resource/".length()));
+			} else {
+				sendPage(exchange, path.substring(1));
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			sendText(exchange, 500, "처리 중 오류가 발생했습니다.");
+		}
 	}
 
-	public Member getMember(int id) {
-		return memberDao.getMember(id);
+	private void sendPage(HttpExchange exchange, String pagePath) throws IOException {
+		// 템플릿이나 layout 이 바뀌었으면 캐시를 비운다 (파일 수정 시각만 확인)
+		SiteTemplates templates = SiteTemplates.load();
+		SiteLayout siteLayout = SiteLayout.load();
+		pageCache.checkSourceHash(Util.hash64(templates.getSourceHash(), siteLayout.toString()));
+
+		DevPage page = pageCache.get(pagePath, articleService);
+
+		if (page == null) {
+			// 그리는 도중에 데이터가 바뀌면 이 페이지는 캐시에 담지 않는다
+			long loadVersion = pageCache.getVersion();
+
+			try (DBSnapshot snapshot = articleService.openSnapshot()) {
+				page = buildService.renderPage(pagePath, snapshot, templates, siteLayout);
+			}
+
+			if (page == null) {
+				sendText(exchange, 404, "없는 페이지입니다.");
+				return;
+			}
+
+			pageCache.put(pagePath, page, loadVersion);
+		}
+
+		if (sendNotModified(exchange, page.getEtag(), page.getLastModified())) {
+			return;
+		}
+
+		sendBody(exchange, page.getContentType(), page.getBody());
 	}
-}
 
-// Dao
-class ArticleDao {
-	DB db;
+	private void sendResource(HttpExchange exchange, String fileName) throws IOException {
+		File file = new File("site_template/resource/" + fileName);
 
-	ArticleDao() {
-		db = Factory.getDB();
+		if (fileName.length() == 0 || fileName.contains("/") || fileName.contains("\\") || fileName.startsWith(".")
+				|| file.isFile() == false) {
+			sendText(exchange, 404, "없는 파일입니다.");
+			return;
+		}
+
+		// 파일은 수정 시각과 크기로 ETag 를 만든다 (같으면 읽지도 않는다)
+		long lastModified = file.lastModified() / 1000 * 1000;
+		String etag = "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(file.length()) + "\"";
+
+		if (sendNotModified(exchange, etag, lastModified)) {
+			return;
+		}
+
+		sendBody(exchange, getContentType(fileName), Files.readAllBytes(file.toPath()));
 	}
 
-	// 게시물 삭제
-	public int articleDelete(int id) {
-		db.articleDelete(id);
-		return id;
+	// 브라우저가 가진 것과 같으면 304를 보내고 true
+	// If-None-Match 가 있으면 그것만 보고, 없으면 If-Modified-Since 를 본다
+	private boolean sendNotModified(HttpExchange exchange, String etag, long lastModified) throws IOException {
+		Headers headers = exchange.getResponseHeaders();
+		headers.set("ETag", etag);
+		headers.set("Last-Modified", HTTP_DATE_FORMAT.format(Instant.ofEpochMilli(lastModified).atZone(ZoneOffset.UTC)));
+		// 캐시해도 되지만 쓰기 전에 매번 확인하도록
+		headers.set("Cache-Control", "no-cache");
+
+		if (isNotModified(exchange.getRequestHeaders(), etag, lastModified) == false) {
+			return false;
+		}
+
+		exchange.sendResponseHeaders(304, -1);
+		exchange.close();
+
+		return true;
+	}
+
+	private static boolean isNotModified(Headers requestHeaders, String etag, long lastModified) {
+		String ifNoneMatch = requestHeaders.getFirst("If-None-Match");
+
+		if (ifNoneMatch != null) {
+			for (String tag : ifNoneMatch.split(",")) {
+				tag = tag.trim();
+
+				if (tag.startsWith("W/")) {
+					tag = tag.substring(2);
+				}
+
+				if (tag.equals("*") || tag.equals(etag)) {
+					return true;
+				}
+			}
+
+			return false;
+		}
+
+		String ifModifiedSince = requestHeaders.getFirst("If-Modified-Since");
+
+		if (ifModifiedSince == null) {
+			return false;
+		}
+
+		try {
+			return ZonedDateTime.parse(ifModifiedSince, HTTP_DATE_FORMAT).toInstant().toEpochMilli() >= lastModified;
+		} catch (DateTimeParseException e) {
+			return false;
+		}
+	}
+
+	private void sendBody(HttpExchange exchange, String contentType, byte[] body) throws IOException {
+		boolean head = exchange.getRequestMethod().equals("HEAD");
+
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(200, head ? -1 : body.length);
+
+		// HEAD 응답은 본문 스트림 대신 교환 자체를 닫는다
+		if (head) {
+			exchange.close();
+			return;
+		}
+
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	// HEAD 요청에는 본문 없이 헤더만
+	private void sendText(HttpExchange exchange, int status, String text) throws IOException {
+		boolean head = exchange.getRequestMethod().equals("HEAD");
+		byte[] body = text.getBytes(StandardCharsets.UTF_8);
+
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+		exchange.sendResponseHeaders(status, head ? -1 : body.length);
+
+		if (head) {
+			exchange.close();
+			return;
+		}
+
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private static String getContentType(String fileName) {
+		if (fileName.endsWith(".html")) {
+			return "text/html; charset=UTF-8";
+		} else if (fileName.endsWith(".css")) {
+			return "text/css; charset=UTF-8";
+		} else if (fileName.endsWith(".js")) {
+			return "application/javascript; charset=UTF-8";
+		} else if (fileName.endsWith(".jpg") || fileName.endsWith(".jpeg")) {
+			return "image/jpeg";
+		} else if (fileName.endsWith(".png")) {
+			return "image/png";
+		}
+
+		return "application/octet-stream";
+	}
+}
+
+// EventBus
+// 데이터가 바뀌었을 때 알림 (테이블 이름, id)
+// 서비스에서 쓰기가 끝나면 publish 하고, 자동빌드 같은 곳에서 subscribe 해서 받는다.
+class EventBus {
+	interface Listener {
+		void onChange(String tableName, int id);
+	}
+
+	private List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+	public void subscribe(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void unsubscribe(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	public void publish(String tableName, int id) {
+		for (Listener listener : listeners) {
+			listener.onChange(tableName, id);
+		}
+	}
+}
+
+// Service
+class BuildService {
+	private static ArticleService articleService;
+	private static MemberService memberService;
+	// 마지막 변경 후 이만큼 조용하면 자동빌드 (연달아 바뀌면 한번으로 합친다)
+	private static final long AUTO_BUILD_DELAY_MILLIS = 300;
+	// 계속 바뀌어도 첫 변경 후 이 시간 안에는 한번 빌드한다 (예약이 끝없이 밀리지 않도록)
+	private static final long AUTO_BUILD_MAX_DELAY_MILLIS = 3000;
+	// 게시물 페이지를 만들 때 한번에 읽어오는 게시물 수
+	private static final int ARTICLE_CHUNK_SIZE = 1000;
+	// site_template/resource 에서 site/resource 로 복사하는 파일
+	private static final String[] RESOURCE_FILE_NAMES = { "common.css", "common.js", "log.html" };
+	// 페이지를 동시에 몇개까지 만들지 (1이면 한 쓰레드에서 차례로)
+	private int parallelism;
+	private ForkJoinPool buildPool;
+	// 게시물 리스트 페이지 하나에 들어가는 게시물 수
+	private int listPageSize;
+	// 빌드는 한번에 하나만
+	private Object buildLock = new Object();
+	// 자동빌드
+	private ScheduledExecutorService autoBuildExecutor;
+	private ScheduledFuture<?> pendingAutoBuild;
+	// 아직 빌드에 반영되지 않은 첫 변경 시각 (없으면 0)
+	private long firstPendingChangeMillis;
+	// 자동빌드를 끄면 true, 빌드 중이면 페이지 사이에서 확인하고 멈춘다
+	private AtomicBoolean autoBuildStopped;
+	private EventBus.Listener autoBuildListener;
+
+	BuildService() {
+		articleService = Factory.getArticleService();
+		memberService = Factory.getMemberService();
+		parallelism = Integer.getInteger("ssg.build.parallelism", Runtime.getRuntime().availableProcessors());
+		listPageSize = Integer.getInteger("ssg.site.pageSize", 10);
+	}
+
+	public int getListPageSize() {
+		return listPageSize;
+	}
+
+	public void setListPageSize(int listPageSize) {
+		this.listPageSize = Math.max(1, listPageSize);
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	public synchronized void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+
+		if (buildPool != null) {
+			buildPool.shutdown();
+			buildPool = null;
+		}
+	}
+
+	private synchronized ForkJoinPool getBuildPool() {
+		if (buildPool == null) {
+			buildPool = new ForkJoinPool(parallelism);
+		}
+
+		return buildPool;
+	}
+
+	// 페이지 만드는 작업들을 실행한다. 작업끼리는 서로 공유하는 값을 읽기만 한다.
+	// 빌드하던 쓰레드가 interrupt 되거나 빌드가 취소되면 남은 작업은 건너뛴다.
+	private void runPageTasks(SiteBuild build, List<Runnable> tasks) {
+		if (parallelism <= 1) {
+			for (Runnable task : tasks) {
+				if (Thread.currentThread().isInterrupted()) {
+					build.cancel();
+					return;
+				}
+
+				if (build.isCancelled()) {
+					return;
+				}
+
+				task.run();
+			}
+
+			return;
+		}
+
+		try {
+			getBuildPool().submit(() -> tasks.parallelStream().forEach(task -> {
+				if (build.isCancelled() == false) {
+					task.run();
+				}
+			})).get();
+		} catch (InterruptedException e) {
+			build.cancel();
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			// 페이지 하나라도 실패하면 남은 페이지가 기록되지 않으므로 finish 하지 않는다 (차례로 만들 때처럼 예외를 그대로 던진다)
+			build.cancel();
+
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	public SiteBuild buildSite() {
+		return buildSite(true);
+	}
+
+	// incremental : 지난번 빌드 이후 바뀐 게시물/게시판/회원에 영향을 받는 페이지만 다시 쓴다
+	// 페이지마다 그 페이지를 만드는 데 쓰인 데이터/템플릿의 해시(signature)를 manifest에 남겨두고
+	// signature가 지난번과 같고 파일도 남아있으면 건너뛴다.
+	// 조회수/추천수는 signature에 넣지 않는다 (조회 한번에 페이지들이 다시 써지지 않도록).
+	// 그래서 페이지에 보이는 수는 그 페이지가 다른 이유로 다시 써질 때나 build site full 에서만 새로 고쳐진다.
+	public SiteBuild buildSite(boolean incremental) {
+		return buildSite(incremental, null);
+	}
+
+	// stopRequested : true가 되면 남은 페이지는 만들지 않고 멈춘다 (자동빌드 끄기)
+	private SiteBuild buildSite(boolean incremental, AtomicBoolean stopRequested) {
+		synchronized (buildLock) {
+			return doBuildSite(incremental, stopRequested);
+		}
+	}
+
+	// 빌드하는 동안은 시작할 때의 DB 스냅샷만 읽는다
+	// 빌드 중에 글이 써져도 리스트 페이지와 게시물 페이지가 서로 다른 내용을 보지 않는다 (글쓰기는 기다리지 않는다)
+	private SiteBuild doBuildSite(boolean incremental, AtomicBoolean stopRequested) {
+		try (DBSnapshot snapshot = articleService.openSnapshot()) {
+			return doBuildSite(incremental, stopRequested, snapshot);
+		}
+	}
+
+	private SiteBuild doBuildSite(boolean incremental, AtomicBoolean stopRequested, DBSnapshot snapshot) {
+		Util.makeDir("site");
+		Util.makeDir("site/article");
+		Util.makeDir("site/home");
+		Util.makeDir("site/stat");
+		Util.makeDir("site/resource");
+
+		SiteBuild build = new SiteBuild(incremental ? BuildManifest.load() : new BuildManifest(), stopRequested);
+		List<Runnable> tasks = new ArrayList<>();
+		// 게시물 페이지를 하위 폴더로 나눠서 만드는지
+		SiteLayout siteLayout = SiteLayout.load();
+
+		for (String resource : RESOURCE_FILE_NAMES) {
+			tasks.add(() -> {
+				String contents = Util.getFileContents("site_template/resource/" + resource);
+				build.writePage("site/resource/" + resource, Util.hash64(contents), out -> out.append(contents));
+			});
+		}
+
+		// 템플릿은 파일이 바뀌지 않았으면 한번 분석해둔 것을 그대로 쓴다
+		SiteTemplates templates = SiteTemplates.load();
+		Template home = templates.getHome();
+		Template stat = templates.getStat();
+		Template head = templates.getHead();
+		Template foot = templates.getFoot();
+		Template list = templates.getList();
+		Template detail = templates.getDetail();
+
+		// 각 게시판 별 게시물리스트 페이지 생성
+		List<Board> boards = snapshot.getBoards();
+
+		// 게시판 메뉴 (모든 페이지가 읽기만 하면서 같이 쓴다)
+		Map<String, Object> menuVars = getMenuVars(boards);
+
+		long menuHash = 0;
+
+		for (Board board : boards) {
+			menuHash = Util.hash64(menuHash, build.getEntityHash("board", board.getId(), board));
+		}
+
+		long homeSignature = Util.hash64(home.getSourceHash(), menuHash);
+		long statSignature = Util.hash64(stat.getSourceHash(), menuHash);
+
+		tasks.add(() -> build.writePage("site/home/index.html", homeSignature, out -> home.render(out, menuVars)));
+		tasks.add(() -> build.writePage("site/stat/index.html", statSignature, out -> stat.render(out, menuVars)));
+
+		long layoutHash = Util.hash64(Util.hash64(Util.hash64(head.getSourceHash(), foot.getSourceHash()), menuHash),
+				siteLayout.toString());
+
+		// 게시판마다 listPageSize개씩 나눠서 <code>-list-<페이지>.html 생성
+		for (Board board : boards) {
+			int articleCount = snapshot.getArticleCount(board.getId());
+			int pageCount = Math.max(1, (articleCount + listPageSize - 1) / listPageSize);
+
+			for (int page = 1; page <= pageCount; page++) {
+				int pageNo = page;
+
+				tasks.add(() -> {
+					int from = (pageNo - 1) * listPageSize;
+					List<ArticleView> pageArticles = articleService.getArticleViews(snapshot, board.getId(), from,
+							listPageSize);
+					PageNav nav = new PageNav(board.getCode(), pageNo, pageCount);
+
+					long signature = Util.hash64(layoutHash, list.getSourceHash());
+					signature = Util.hash64(signature, nav.toString());
+
+					for (ArticleView view : pageArticles) {
+						Article article = view.getArticle();
+
+						signature = Util.hash64(signature, build.getEntityHash("article", article.getId(), article));
+						signature = Util.hash64(signature, getMemberHash(build, article.getMemberId(), view.getWriter()));
+					}
+
+					build.writePage("site/article/" + PageNav.getFileName(board.getCode(), pageNo), signature, out -> {
+						// 조회수/추천수는 서명에 넣지 않고 페이지를 다시 쓸 때만 읽는다
+						long[] hitCounts = new long[pageArticles.size()];
+						long[] likeCounts = new long[pageArticles.size()];
+
+						for (int i = 0; i < pageArticles.size(); i++) {
+							hitCounts[i] = articleService.getHitCount(pageArticles.get(i).getArticle().getId());
+							likeCounts[i] = articleService.getLikeCount(pageArticles.get(i).getArticle().getId());
+						}
+
+						renderListPage(out, templates, menuVars, siteLayout, pageArticles, from, nav, hitCounts,
+								likeCounts);
+					});
+				});
+			}
+		}
+
+		runPageTasks(build, tasks);
+
+		// 게시물 별 파일 생성
+		// 전체를 한번에 읽지 않고 ARTICLE_CHUNK_SIZE개씩 이어서 읽으면서 만든다
+		int lastId = 0;
+
+		while (build.isCancelled() == false) {
+			// 작성자는 청크마다 회원별로 한번씩만 읽는다
+			List<ArticleView> articles = articleService.getArticleViewsAfter(snapshot, 0, lastId, ARTICLE_CHUNK_SIZE);
+
+			if (articles.isEmpty()) {
+				break;
+			}
+
+			tasks = new ArrayList<>(articles.size());
+
+			for (ArticleView view : articles) {
+				Article article = view.getArticle();
+				String pagePath = siteLayout.getArticlePagePath(article.getId());
+				String root = SiteLayout.getRootPrefix(pagePath);
+				// 같은 게시판의 이전글, 다음글 (없으면 #)
+				// 링크가 서명에 들어가므로 글이 지워지면 양 옆 글의 페이지만 다시 만든다
+				String prevLink = getArticleLink(siteLayout, root, snapshot.getPrevArticleId(article));
+				String nextLink = getArticleLink(siteLayout, root, snapshot.getNextArticleId(article));
+
+				tasks.add(() -> {
+					List<ArticleReply> replies = snapshot.getReplies(article.getId());
+
+					long signature = Util.hash64(layoutHash, detail.getSourceHash());
+					signature = Util.hash64(signature, build.getEntityHash("article", article.getId(), article));
+
+					for (ArticleReply reply : replies) {
+						signature = Util.hash64(signature, build.getEntityHash("reply", reply.getId(), reply));
+						signature = Util.hash64(signature,
+								getMemberHash(build, reply.getMemberId(), snapshot.getMember(reply.getMemberId())));
+					}
+
+					signature = Util.hash64(signature, getMemberHash(build, article.getMemberId(), view.getWriter()));
+					signature = Util.hash64(signature, prevLink + " " + nextLink);
+
+					build.writePage("site/" + pagePath, signature, out -> renderDetailPage(out, templates, menuVars,
+							snapshot, view, root, articleService.getHitCount(article.getId()),
+							articleService.getLikeCount(article.getId()), replies, prevLink, nextLink));
+				});
+			}
+
+			runPageTasks(build, tasks);
+
+			lastId = articles.get(articles.size() - 1).getArticle().getId();
+		}
+
+		// 중간에 멈췄으면 기록을 남기지 않는다 (다음 빌드에서 다시 확인)
+		if (build.isCancelled() == false) {
+			build.finish();
+		}
+
+		return build;
+	}
+
+	// 페이지에는 회원 이름만 나오므로 이름만 해시한다 (비밀번호 등은 manifest에 남기지 않는다)
+	private long getMemberHash(SiteBuild build, int memberId, Member member) {
+		return build.getEntityHash("member", memberId, member == null ? null : member.getName());
+	}
+
+	// 게시물 페이지에서 다른 게시물 페이지로 가는 링크 (id가 0이면 #)
+	private String getArticleLink(SiteLayout siteLayout, String root, int id) {
+		return id == 0 ? "#" : root + siteLayout.getArticlePagePath(id);
+	}
+
+	// build serve : site 폴더 기준 경로의 페이지 하나만 그린다 (없는 페이지면 null)
+	// build site 와 같은 템플릿, 같은 변수로 그린다.
+	// 페이지에 들어간 데이터마다 태그를 달아서 그 데이터가 바뀌면 캐시에서 지울 수 있게 한다.
+	public DevPage renderPage(String pagePath, DBSnapshot snapshot, SiteTemplates templates, SiteLayout siteLayout) {
+		List<Board> boards = snapshot.getBoards();
+		Map<String, Object> menuVars = getMenuVars(boards);
+		StringBuilder out = new StringBuilder(8192);
+		DevPage page = new DevPage("text/html; charset=UTF-8");
+		// 메뉴는 모든 페이지에 들어간다
+		page.addTag("board");
+
+		if (pagePath.equals("home/index.html")) {
+			templates.getHome().render(out, menuVars);
+		} else if (pagePath.equals("stat/index.html")) {
+			templates.getStat().render(out, menuVars);
+		} else if (pagePath.startsWith("article/") && pagePath.endsWith(".html")) {
+			String fileName = pagePath.substring(pagePath.lastIndexOf('/') + 1, pagePath.length() - 5);
+			int listPos = fileName.lastIndexOf("-list-");
+
+			if (listPos > 0 && pagePath.indexOf('/') == pagePath.lastIndexOf('/')) {
+				int pageNo = Util.parsePositiveInt(fileName.substring(listPos + 6));
+
+				if (renderServedListPage(out, page, snapshot, templates, menuVars, siteLayout, boards,
+						fileName.substring(0, listPos), pageNo) == false) {
+					return null;
+				}
+			} else {
+				int id = Util.parsePositiveInt(fileName);
+
+				// 지금 layout 의 경로가 아니면 없는 페이지
+				if (id <= 0 || siteLayout.getArticlePagePath(id).equals(pagePath) == false) {
+					return null;
+				}
+
+				if (renderServedDetailPage(out, page, snapshot, templates, menuVars, siteLayout, id) == false) {
+					return null;
+				}
+			}
+		} else {
+			return null;
+		}
+
+		page.setContents(out.toString());
+
+		return page;
+	}
+
+	private boolean renderServedListPage(StringBuilder out, DevPage page, DBSnapshot snapshot, SiteTemplates templates,
+			Map<String, Object> menuVars, SiteLayout siteLayout, List<Board> boards, String boardCode, int pageNo) {
+		Board board = null;
+
+		for (Board b : boards) {
+			if (b.getCode().equals(boardCode)) {
+				board = b;
+			}
+		}
+
+		if (board == null) {
+			return false;
+		}
+
+		int articleCount = snapshot.getArticleCount(board.getId());
+		int pageCount = Math.max(1, (articleCount + listPageSize - 1) / listPageSize);
+
+		if (pageNo < 1 || pageNo > pageCount) {
+			return false;
+		}
+
+		int from = (pageNo - 1) * listPageSize;
+		List<ArticleView> pageArticles = articleService.getArticleViews(snapshot, board.getId(), from, listPageSize);
+		int[] articleIds = new int[pageArticles.size()];
+		long[] hitCounts = new long[pageArticles.size()];
+		long[] likeCounts = new long[pageArticles.size()];
+
+		for (int i = 0; i < pageArticles.size(); i++) {
+			Article article = pageArticles.get(i).getArticle();
+			articleIds[i] = article.getId();
+			hitCounts[i] = articleService.getHitCount(article.getId());
+			likeCounts[i] = articleService.getLikeCount(article.getId());
+
+			page.addTag("member:" + article.getMemberId());
+		}
+
+		// 게시물이 지워지면 어느 게시판이었는지 모르므로 "list" 로 전부 지운다
+		page.addTag("list");
+		page.addTag("list:" + board.getId());
+		page.setCounts(articleIds, hitCounts, likeCounts);
+
+		renderListPage(out, templates, menuVars, siteLayout, pageArticles, from,
+				new PageNav(board.getCode(), pageNo, pageCount), hitCounts, likeCounts);
+
+		return true;
+	}
+
+	private boolean renderServedDetailPage(StringBuilder out, DevPage page, DBSnapshot snapshot, SiteTemplates templates,
+			Map<String, Object> menuVars, SiteLayout siteLayout, int id) {
+		ArticleView view = articleService.getArticleView(snapshot, id);
+
+		if (view == null) {
+			return false;
+		}
+
+		Article article = view.getArticle();
+		String root = SiteLayout.getRootPrefix(siteLayout.getArticlePagePath(id));
+		int prevId = snapshot.getPrevArticleId(article);
+		int nextId = snapshot.getNextArticleId(article);
+		long hitCount = articleService.getHitCount(id);
+		long likeCount = articleService.getLikeCount(id);
+		List<ArticleReply> replies = snapshot.getReplies(id);
+
+		// 이전글/다음글이 지워지면 링크가 바뀐다
+		page.addTag("article:" + id);
+		page.addTag("article:" + prevId);
+		page.addTag("article:" + nextId);
+		page.addTag("member:" + article.getMemberId());
+
+		// 게시판의 마지막 글이면 새 글이 써질 때 다음글 링크가 생긴다
+		if (nextId == 0) {
+			page.addTag("last:" + article.getBoardId());
+		}
+
+		for (ArticleReply reply : replies) {
+			page.addTag("reply:" + reply.getId());
+			page.addTag("member:" + reply.getMemberId());
+		}
+
+		page.setCounts(new int[] { id }, new long[] { hitCount }, new long[] { likeCount });
+
+		renderDetailPage(out, templates, menuVars, snapshot, view, root, hitCount, likeCount, replies,
+				getArticleLink(siteLayout, root, prevId), getArticleLink(siteLayout, root, nextId));
+
+		return true;
+	}
+
+	// 게시판 메뉴
+	private Map<String, Object> getMenuVars(List<Board> boards) {
+		Map<String, Object> menuVars = new HashMap<>();
+		menuVars.put("LI", Template.rows(boards, (board, index, row) -> {
+			row.put("LINK", "article/" + PageNav.getFileName(board.getCode(), 1));
+			row.put("NAME", board.getCode());
+		}));
+		// site 폴더 기준 경로 앞에 붙일 값 (home, stat, 게시물 리스트 페이지는 한 단계 아래)
+		menuVars.put("ROOT", "../");
+
+		return menuVars;
+	}
+
+	// 게시물 리스트 페이지 (조회수/추천수는 pageArticles와 같은 순서)
+	private void renderListPage(StringBuilder out, SiteTemplates templates, Map<String, Object> menuVars,
+			SiteLayout siteLayout, List<ArticleView> pageArticles, int from, PageNav nav, long[] hitCounts,
+			long[] likeCounts) {
+		Map<String, Object> vars = new HashMap<>(menuVars);
+		vars.put("TR", Template.rows(pageArticles, (view, index, row) -> {
+			Article article = view.getArticle();
+
+			row.put("NO", from + index + 1);
+			row.put("REG_DATE", article.getRegDate());
+			row.put("WRITER", view.getWriterName());
+			row.put("LINK", siteLayout.getArticlePagePath(article.getId()));
+			row.put("TITLE", article.getTitle());
+			row.put("HIT", hitCounts[index]);
+			row.put("LIKE", likeCounts[index]);
+		}));
+		nav.putVars(vars);
+
+		templates.getHead().render(out, vars);
+		templates.getList().render(out, vars);
+		templates.getFoot().render(out, vars);
+	}
+
+	// 게시물 상세 페이지
+	private void renderDetailPage(StringBuilder out, SiteTemplates templates, Map<String, Object> menuVars,
+			DBSnapshot snapshot, ArticleView view, String root, long hitCount, long likeCount,
+			List<ArticleReply> replies, String prevLink, String nextLink) {
+		Article article = view.getArticle();
+
+		Map<String, Object> vars = new HashMap<>(menuVars);
+		vars.put("ROOT", root);
+		vars.put("TITLE", article.getTitle());
+		vars.put("BODY", article.getBody());
+		vars.put("WRITER", view.getWriterName());
+		vars.put("HIT", hitCount);
+		vars.put("LIKE", likeCount);
+		vars.put("REPLY_COUNT", replies.size());
+		vars.put("REPLY", Template.rows(replies, (reply, index, row) -> {
+			row.put("WRITER", snapshot.getMember(reply.getMemberId()).getName());
+			row.put("REG_DATE", reply.getRegDate());
+			row.put("BODY", reply.getBody());
+		}));
+		vars.put("PREV_LINK", prevLink);
+		vars.put("NEXT_LINK", nextLink);
+
+		templates.getHead().render(out, vars);
+		templates.getDetail().render(out, vars);
+		templates.getFoot().render(out, vars);
+	}
+
+	// 자동빌드 켜기
+	// 데이터가 바뀌었다는 알림을 받으면 AUTO_BUILD_DELAY_MILLIS 뒤에 빌드하도록 예약한다.
+	// 그 사이에 또 바뀌면 예약을 미루기 때문에 연달아 바뀌어도 빌드는 한번만 한다.
+	// 다만 첫 변경 후 AUTO_BUILD_MAX_DELAY_MILLIS가 지나면 더 미루지 않는다 (계속 써져도 그 간격으로는 빌드한다).
+	// 빌드 쓰레드는 하나뿐이라 자동빌드끼리 겹치지 않고, 바뀐 게 없으면 아무것도 하지 않는다.
+	public synchronized void startWork() {
+		if (autoBuildExecutor != null) {
+			return;
+		}
+
+		autoBuildExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "auto-build");
+			thread.setDaemon(true);
+			return thread;
+		});
+		autoBuildStopped = new AtomicBoolean();
+		firstPendingChangeMillis = 0;
+		autoBuildListener = (tableName, id) -> scheduleAutoBuild();
+		Factory.getEventBus().subscribe(autoBuildListener);
+
+		// 켜자마자 한번
+		scheduleAutoBuild();
+	}
+
+	private synchronized void scheduleAutoBuild() {
+		if (autoBuildExecutor == null) {
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+
+		if (firstPendingChangeMillis == 0) {
+			firstPendingChangeMillis = now;
+		}
+
+		// 아직 시작 안 한 예약은 취소하고 다시 예약 (이미 빌드 중이면 끝난 뒤에 한번 더)
+		if (pendingAutoBuild != null) {
+			pendingAutoBuild.cancel(false);
+		}
+
+		long delay = Math.min(AUTO_BUILD_DELAY_MILLIS,
+				Math.max(0, firstPendingChangeMillis + AUTO_BUILD_MAX_DELAY_MILLIS - now));
+		AtomicBoolean stopped = autoBuildStopped;
+
+		pendingAutoBuild = autoBuildExecutor.schedule(() -> {
+			// 빌드를 시작하면 그 뒤의 변경은 다음 빌드의 몫
+			synchronized (this) {
+				firstPendingChangeMillis = 0;
+			}
+
+			if (stopped.get() == false) {
+				buildSite(true, stopped);
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	// 자동빌드 끄기, 빌드 중이었으면 지금 만들던 페이지까지만 쓰고 멈춘다.
+	// (쓰레드를 interrupt 하지 않으므로 파일을 쓰다가 끊기지 않는다)
+	public synchronized void stopWork() {
+		if (autoBuildExecutor == null) {
+			return;
+		}
+
+		Factory.getEventBus().unsubscribe(autoBuildListener);
+		autoBuildListener = null;
+		autoBuildStopped.set(true);
+
+		if (pendingAutoBuild != null) {
+			pendingAutoBuild.cancel(false);
+			pendingAutoBuild = null;
+		}
+
+		autoBuildExecutor.shutdown();
+		autoBuildExecutor = null;
+	}
+
+}
+
+// ShardLayout
+// id를 해시해서 2단계 하위 폴더(00~ff/00~ff)로 나눈다.
+// 폴더 하나에 파일이 수십만개씩 쌓이지 않게 하기 위함이고, 경로는 계산만 하면 된다.
+class ShardLayout {
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	// 예) 1 -> "3c/7a"
+	public static String getShardDirPath(int id) {
+		int hash = id * 0x9E3779B1;
+		hash ^= hash >>> 16;
+
+		char[] chars = new char[5];
+		chars[0] = HEX[(hash >>> 12) & 0xf];
+		chars[1] = HEX[(hash >>> 8) & 0xf];
+		chars[2] = '/';
+		chars[3] = HEX[(hash >>> 4) & 0xf];
+		chars[4] = HEX[hash & 0xf];
+
+		return new String(chars);
+	}
+
+	public static String getPath(String dirPath, int id, String ext) {
+		return dirPath + "/" + getShardDirPath(id) + "/" + id + ext;
+	}
+}
+
+// SiteLayout
+// 게시물 페이지 경로 (site/layout.txt 에 sharded 라고 되어 있으면 article/<샤드>/<id>.html)
+class SiteLayout {
+	private static final String FILE_PATH = "site/layout.txt";
+
+	private boolean sharded;
+
+	SiteLayout(boolean sharded) {
+		this.sharded = sharded;
+	}
+
+	public static SiteLayout load() {
+		return new SiteLayout(Util.isFileExists(FILE_PATH) && Util.getFileContents(FILE_PATH).trim().equals("sharded"));
+	}
+
+	public static void setSharded() {
+		Util.makeDir("site");
+		Util.writeFileContents(FILE_PATH, "sharded");
+	}
+
+	// site 폴더 기준 게시물 페이지 경로
+	public String getArticlePagePath(int id) {
+		if (sharded) {
+			return ShardLayout.getPath("article", id, ".html");
+		}
+
+		return "article/" + id + ".html";
+	}
+
+	// 페이지에서 site 폴더로 돌아가는 상대경로 (article/1.html -> ../)
+	public static String getRootPrefix(String pagePath) {
+		StringBuilder root = new StringBuilder();
+
+		for (int i = 0; i < pagePath.length(); i++) {
+			if (pagePath.charAt(i) == '/') {
+				root.append("../");
+			}
+		}
+
+		return root.toString();
+	}
+
+	@Override
+	public String toString() {
+		return sharded ? "sharded" : "flat";
+	}
+}
+
+// PageNav
+// 게시물 리스트 페이지 아래쪽 페이지 이동 링크
+// 페이지 번호는 10개씩 묶어서 보여주고, 앞/뒤 묶음이 있으면 이전/다음 링크를 단다.
+// 링크는 지금 페이지가 속한 묶음에만 걸리므로 페이지가 하나 늘어나도 마지막 묶음의 페이지들만 바뀐다.
+class PageNav {
+	private static final int BLOCK_SIZE = 10;
+
+	private String boardCode;
+	private int page;
+	private int blockStart;
+	private int blockEnd;
+	private boolean hasPrevBlock;
+	private boolean hasNextBlock;
+
+	PageNav(String boardCode, int page, int pageCount) {
+		this.boardCode = boardCode;
+		this.page = page;
+		this.blockStart = (page - 1) / BLOCK_SIZE * BLOCK_SIZE + 1;
+		this.blockEnd = Math.min(blockStart + BLOCK_SIZE - 1, pageCount);
+		this.hasPrevBlock = blockStart > 1;
+		this.hasNextBlock = blockEnd < pageCount;
+	}
+
+	public static String getFileName(String boardCode, int page) {
+		return boardCode + "-list-" + page + ".html";
+	}
+
+	public void putVars(Map<String, Object> vars) {
+		List<Integer> pages = new ArrayList<>();
+
+		for (int i = blockStart; i <= blockEnd; i++) {
+			pages.add(i);
+		}
+
+		vars.put("PAGES", Template.rows(pages, (pageNo, index, row) -> {
+			row.put("LINK", getFileName(boardCode, pageNo));
+			row.put("NO", pageNo);
+			row.put("CURRENT", pageNo == page ? " class=\"current\"" : "");
+		}));
+		vars.put("PREV_BLOCK", hasPrevBlock ? linkRows(blockStart - 1) : Collections.emptyList());
+		vars.put("NEXT_BLOCK", hasNextBlock ? linkRows(blockEnd + 1) : Collections.emptyList());
+	}
+
+	private List<Map<String, Object>> linkRows(int pageNo) {
+		Map<String, Object> row = new HashMap<>();
+		row.put("LINK", getFileName(boardCode, pageNo));
+
+		return Collections.singletonList(row);
+	}
+
+	// 페이지 signature에 넣기 위한 문자열 (링크가 바뀌면 이 값도 바뀐다)
+	@Override
+	public String toString() {
+		return page + "/" + blockStart + "-" + blockEnd + "/" + hasPrevBlock + "/" + hasNextBlock;
+	}
+}
+
+// BuildManifest
+// 지난번 빌드 기록 (site_build/manifest.json, 공개되는 site 폴더 밖에 둔다)
+// entities : 데이터("article:1", "member:1" ...) -> 내용 해시
+// pages : 만든 파일 경로 -> 그 파일을 만드는 데 쓰인 입력들의 해시
+class BuildManifest {
+	private static final String DIR_PATH = "site_build";
+	private static final String FILE_PATH = DIR_PATH + "/manifest.json";
+	// 예전에 site 폴더 안에 두던 기록 (한번 읽어서 옮기고 지운다)
+	private static final String OLD_FILE_PATH = "site/.build_manifest.json";
+
+	private Map<String, Long> entities;
+	private Map<String, Long> pages;
+
+	public BuildManifest() {
+		entities = new TreeMap<>();
+		pages = new TreeMap<>();
+	}
+
+	public static BuildManifest load() {
+		BuildManifest manifest = null;
+
+		if (Util.isFileExists(FILE_PATH)) {
+			manifest = Util.getObjectFromJson(FILE_PATH, BuildManifest.class);
+		} else if (Util.isFileExists(OLD_FILE_PATH)) {
+			manifest = Util.getObjectFromJson(OLD_FILE_PATH, BuildManifest.class);
+		}
+
+		return manifest == null ? new BuildManifest() : manifest;
+	}
+
+	public void save() {
+		Util.makeDir(DIR_PATH);
+		Util.writeJsonFile(FILE_PATH, this);
+		Util.deleteFileContents(OLD_FILE_PATH);
+	}
+
+	public Map<String, Long> getEntities() {
+		return entities;
+	}
+
+	public void setEntities(Map<String, Long> entities) {
+		this.entities = entities;
+	}
+
+	public Map<String, Long> getPages() {
+		return pages;
+	}
+
+	public void setPages(Map<String, Long> pages) {
+		this.pages = pages;
+	}
+}
+
+// SiteBuild
+// 빌드 한번 동안의 상태 (지난번 기록, 이번 기록, 바뀐 데이터 수, 쓴 파일 수)
+class SiteBuild {
+	private BuildManifest oldManifest;
+	private BuildManifest manifest;
+	// 페이지를 여러 쓰레드에서 동시에 만들 수 있으므로 버퍼는 쓰레드마다 하나
+	private ThreadLocal<StringBuilder> pages;
+	private AtomicInteger changedEntityCount;
+	private AtomicInteger writtenPageCount;
+	private int deletedPageCount;
+	private volatile boolean cancelled;
+	// 밖에서 멈춰달라고 할 때 쓰는 표시 (없으면 null)
+	private AtomicBoolean stopRequested;
+
+	SiteBuild(BuildManifest oldManifest, AtomicBoolean stopRequested) {
+		this.oldManifest = oldManifest;
+		this.stopRequested = stopRequested;
+		this.manifest = new BuildManifest();
+		this.manifest.setEntities(new ConcurrentHashMap<>());
+		this.manifest.setPages(new ConcurrentHashMap<>());
+		this.pages = ThreadLocal.withInitial(() -> new StringBuilder(8192));
+		this.changedEntityCount = new AtomicInteger();
+		this.writtenPageCount = new AtomicInteger();
+	}
+
+	// 데이터의 내용 해시, 지난번 빌드와 다르면 바뀐 것으로 센다.
+	public long getEntityHash(String tableName, int id, Object entity) {
+		String key = tableName + ":" + id;
+		Long hash = manifest.getEntities().get(key);
+
+		if (hash != null) {
+			return hash;
+		}
+
+		hash = entity == null ? 0 : Util.hash64(Util.toJsonBytes(entity));
+
+		// 다른 쓰레드가 먼저 넣었으면 그쪽에서 이미 센 것
+		if (manifest.getEntities().putIfAbsent(key, hash) == null
+				&& hash.equals(oldManifest.getEntities().get(key)) == false) {
+			changedEntityCount.incrementAndGet();
+		}
+
+		return hash;
+	}
+
+	// signature가 지난번과 같고 파일도 있으면 건너뛰고, 아니면 새로 그려서 쓴다.
+	public void writePage(String filePath, long signature, Template.Writer writer) {
+		manifest.getPages().put(filePath, signature);
+
+		Long oldSignature = oldManifest.getPages().get(filePath);
+
+		if (oldSignature != null && oldSignature == signature && Util.isFileExists(filePath)) {
+			return;
+		}
+
+		StringBuilder page = pages.get();
+		page.setLength(0);
+		writer.write(page);
+		Util.makeDir(new File(filePath).getParent());
+		Util.writeFileContents(filePath, page.toString());
+		writtenPageCount.incrementAndGet();
+	}
+
+	// 이번에 만들지 않은 예전 파일(삭제된 게시물 등)을 지우고 기록을 남긴다.
+	public void finish() {
+		for (String key : oldManifest.getEntities().keySet()) {
+			if (manifest.getEntities().containsKey(key) == false) {
+				changedEntityCount.incrementAndGet();
+			}
+		}
+
+		for (String filePath : oldManifest.getPages().keySet()) {
+			if (manifest.getPages().containsKey(filePath) == false) {
+				Util.deleteFileContents(filePath);
+				deletedPageCount++;
+			}
+		}
+
+		if (manifest.getPages().equals(oldManifest.getPages()) == false
+				|| manifest.getEntities().equals(oldManifest.getEntities()) == false) {
+			// 파일에는 정렬해서 남긴다
+			manifest.setEntities(new TreeMap<>(manifest.getEntities()));
+			manifest.setPages(new TreeMap<>(manifest.getPages()));
+			manifest.save();
+		}
+	}
+
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled || (stopRequested != null && stopRequested.get());
+	}
+
+	public int getChangedEntityCount() {
+		return changedEntityCount.get();
+	}
+
+	public int getWrittenPageCount() {
+		return writtenPageCount.get();
+	}
+
+	public int getDeletedPageCount() {
+		return deletedPageCount;
+	}
+}
+
+class ArticleService {
+	private static final int QUERY_CACHE_SIZE = 256;
+
+	private ArticleDao articleDao;
+	private MemberDao memberDao;
+	// 목록 조회 결과 캐시 (결과 타입마다 하나씩)
+	// 태그 : "board" (게시판 목록), "article" (전체 게시물), "article:<게시판 id>" (한 게시판의 게시물),
+	//       "articleBoardCode:<게시판 코드>" (게시판 코드로 가져온 게시물)
+	private QueryCache<List<Article>> articleListCache;
+	private QueryCache<List<Board>> boardListCache;
+	private QueryCache<Integer> countCache;
+
+	ArticleService() {
+		articleDao = Factory.getArticleDao();
+		memberDao = Factory.getMemberDao();
+		articleListCache = new QueryCache<>(QUERY_CACHE_SIZE, Collections::unmodifiableList);
+		boardListCache = new QueryCache<>(QUERY_CACHE_SIZE, Collections::unmodifiableList);
+		countCache = new QueryCache<>(QUERY_CACHE_SIZE, Function.identity());
+	}
+
+	public List<QueryCache<?>> getQueryCaches() {
+		return Arrays.asList(articleListCache, boardListCache, countCache);
+	}
+
+	// 태그가 달린 결과를 모든 캐시에서 지운다
+	private void invalidateQueries(String tag) {
+		articleListCache.invalidate(tag);
+		boardListCache.invalidate(tag);
+		countCache.invalidate(tag);
+	}
+
+	// boardId가 0이면 전체 게시물
+	private static String getArticleTag(int boardId) {
+		return boardId == 0 ? "article" : "article:" + boardId;
+	}
+
+	private static String getBoardCodeTag(String code) {
+		return "articleBoardCode:" + code;
+	}
+
+	// 게시물이 바뀌면 그 게시판의 결과와 전체 게시물 결과만 지운다
+	private void invalidateArticles(int boardId) {
+		invalidateQueries(getArticleTag(boardId));
+		invalidateQueries(getArticleTag(0));
+
+		Board board = articleDao.getBoard(boardId);
+
+		if (board != null) {
+			invalidateQueries(getBoardCodeTag(board.getCode()));
+		}
+	}
+
+	// 게시물들에 작성자와 게시판을 붙인다. 같은 회원, 같은 게시판은 한번만 읽는다.
+	public List<ArticleView> getArticleViews(List<Article> articles) {
+		return joinArticleViews(articles, memberDao::getMember, articleDao::getBoard);
+	}
+
+	private List<ArticleView> joinArticleViews(List<Article> articles, Function<Integer, Member> memberGetter,
+			Function<Integer, Board> boardGetter) {
+		Map<Integer, Member> members = new HashMap<>();
+		Map<Integer, Board> boards = new HashMap<>();
+		List<ArticleView> views = new ArrayList<>(articles.size());
+
+		for (Article article : articles) {
+			Member writer = members.computeIfAbsent(article.getMemberId(), memberGetter);
+			Board board = boards.computeIfAbsent(article.getBoardId(), boardGetter);
+
+			views.add(new ArticleView(article, writer, board));
+		}
+
+		return views;
+	}
+
+	// 스냅샷 (열어둔 시점의 DB를 그대로 읽는다, 다 쓰면 close)
+	public DBSnapshot openSnapshot() {
+		return articleDao.openSnapshot();
+	}
+
+	// 스냅샷에서 offset번째부터 limit개 (boardId가 0이면 전체 게시판)
+	public List<ArticleView> getArticleViews(DBSnapshot snapshot, int boardId, int offset, int limit) {
+		return joinArticleViews(snapshot.getArticles(boardId, offset, limit), snapshot::getMember, snapshot::getBoard);
+	}
+
+	// 스냅샷에서 afterId 다음부터 limit개 (boardId가 0이면 전체 게시판)
+	public List<ArticleView> getArticleViewsAfter(DBSnapshot snapshot, int boardId, int afterId, int limit) {
+		return joinArticleViews(snapshot.getArticlesAfter(boardId, afterId, limit), snapshot::getMember,
+				snapshot::getBoard);
+	}
+
+	// 스냅샷에서 게시물 하나 (없으면 null)
+	public ArticleView getArticleView(DBSnapshot snapshot, int id) {
+		Article article = snapshot.getArticle(id);
+
+		if (article == null) {
+			return null;
+		}
+
+		return new ArticleView(article, snapshot.getMember(article.getMemberId()),
+				snapshot.getBoard(article.getBoardId()));
+	}
+
+	// offset번째부터 limit개 (boardId가 0이면 전체 게시판)
+	public List<ArticleView> getArticleViews(int boardId, int offset, int limit) {
+		return getArticleViews(getArticles(boardId, offset, limit));
+	}
+
+	// afterId 다음부터 limit개 (boardId가 0이면 전체 게시판)
+	public List<ArticleView> getArticleViewsAfter(int boardId, int afterId, int limit) {
+		return getArticleViews(articleDao.getArticlesAfter(boardId, afterId, limit));
+	}
+
+	public ArticleView getArticleView(int id) {
+		Article article = articleDao.getArticle(id);
+
+		if (article == null) {
+			return null;
+		}
+
+		return getArticleViews(Arrays.asList(article)).get(0);
+	}
+
+	public Article getArticle(int id) {
+		return articleDao.getArticle(id);
+	}
+
+	// 같은 게시판의 이전글/다음글 id (없으면 0)
+	public int getPrevArticleId(Article article) {
+		return articleDao.getPrevArticleId(article.getBoardId(), article.getId());
+	}
+
+	public int getNextArticleId(Article article) {
+		return articleDao.getNextArticleId(article.getBoardId(), article.getId());
+	}
+
+	// 댓글 작성
+	public int writeReply(int articleId, int memberId, String body) {
+		if (articleDao.getArticle(articleId) == null) {
+			return -1;
+		}
+
+		int id = articleDao.saveReply(new ArticleReply(articleId, memberId, body));
+		Factory.getEventBus().publish("reply", id);
+
+		return id;
+	}
+
+	// 댓글 삭제
+	public int deleteReply(int memberId, int id) {
+		ArticleReply reply = articleDao.getReply(id);
+
+		if (reply == null) {
+			return -1;
+		}
+
+		if (reply.getMemberId() != memberId) {
+			return -3;
+		}
+
+		articleDao.deleteReply(id);
+		Factory.getEventBus().publish("reply", id);
+
+		return id;
+	}
+
+	public List<ArticleReply> getReplies(int articleId) {
+		return articleDao.getReplies(articleId);
+	}
+
+	public ArticleReply getReply(int id) {
+		return articleDao.getReply(id);
+	}
+
+	public int getReplyCount(int articleId) {
+		return articleDao.getReplyCount(articleId);
+	}
+
+	// 조회수 증가 (메모리에서만 세고 파일은 나중에 모아서 쓴다)
+	public void increaseHit(int id) {
+		articleDao.increaseHit(id);
+	}
+
+	// 추천
+	public int like(int id) {
+		if (articleDao.getArticle(id) == null) {
+			return -1;
+		}
+
+		articleDao.increaseLike(id);
+
+		return id;
+	}
+
+	public long getHitCount(int id) {
+		return articleDao.getHitCount(id);
+	}
+
+	public long getLikeCount(int id) {
+		return articleDao.getLikeCount(id);
+	}
+
+	// 삭제 (admin은 안했다.)
+	public int articleDelete(int boardId, int memberId, int id) {
+		Article article = articleDao.getArticle(id);
+
+		if (article == null) {
+			return -1;
+		}
+
+		if (article.getBoardId() != boardId) {
+			return -2;
+		}
+
+		if (article.getMemberId() != memberId) {
+			return -3;
+		}
+
+		articleDao.articleDelete(id);
+		invalidateArticles(article.getBoardId());
+		Factory.getEventBus().publish("article", id);
+
+		return id;
+	}
+
+	// 수정 (admin은 안했다.)
+	public int modify(int boardId, int memberId, String title, String body, int id) {
+		Article article = articleDao.getArticle(id);
+
+		if (article == null) {
+			return -1;
+		}
+
+		if (article.getBoardId() != boardId) {
+			return -2;
+		}
+
+		if (article.getMemberId() != memberId) {
+			return -3;
+		}
+
+		Article modifyArticle = new Article(boardId, memberId, title, body);
+
+		// 확인한 뒤에 다른 곳에서 지웠으면 되살리지 않는다
+		if (articleDao.modifyArticle(modifyArticle, id) == -1) {
+			return -1;
+		}
+
+		invalidateArticles(boardId);
+		Factory.getEventBus().publish("article", id);
+
+		return id;
+	}
+
+	// 캐시에 있으면 게시판도 찾지 않는다 (게시판 코드로 태그를 달아두고, 게시물이 바뀌면 코드로 지운다)
+	// 게시판이 생기거나 지워지면 "board" 태그로 지워진다
+	public List<Article> getArticlesByBoardCode(String code) {
+		return articleListCache.get("articlesByBoardCode:" + code, () -> articleDao.getArticlesByBoardCode(code), "board",
+				getBoardCodeTag(code));
+	}
+
+	public List<Board> getBoards() {
+		return boardListCache.get("boards", () -> articleDao.getBoards(), "board");
+	}
+
+	// 게시판 삭제
+	public Board deleteBoard(String boardCode) {
+		Board board = articleDao.getBoard(boardCode);
+
+		if (board == null) {
+			return null;
+		}
+
+		articleDao.deleteBoard(board.getId());
+		invalidateQueries("board");
+		Factory.getEventBus().publish("board", board.getId());
+
+		return board;
+	}
+
+	// 게시판 이동
+	public Board moveBoard(String boardCode) {
+		Board board = articleDao.getBoard(boardCode);
+
+		if (board == null) {
+			return null;
+		}
+
+		return board;
+	}
+
+	// code로 Board를 받아온다
+	public Board getBoardByCode(String code) {
+		return articleDao.getBoardByCode(code);
+	}
+
+	// Id를 이용하여 Board를 받아온다
+	public Board getBoard(int id) {
+		return articleDao.getBoard(id);
+	}
+
+	// 게시판 만들기
+	public int makeBoard(String name, String code) {
+		Board oldBoard = articleDao.getBoardByCode(code);
+
+		if (oldBoard != null) {
+			return -1;
+		}
+
+		Board board = new Board(name, code);
+		int id = articleDao.saveBoard(board);
+		invalidateQueries("board");
+		Factory.getEventBus().publish("board", id);
+
+		return id;
+	}
+
+	// 게시글 쓰기
+	public int write(int boardId, int memberId, String title, String body) {
+		Article article = new Article(boardId, memberId, title, body);
+		int id = articleDao.save(article);
+		invalidateArticles(boardId);
+		Factory.getEventBus().publish("article", id);
+
+		return id;
+	}
+
+	public List<Article> getArticles() {
+		return articleListCache.get("articles", () -> articleDao.getArticles(), getArticleTag(0));
+	}
+
+	// 페이지 단위로 가져오기 (boardId가 0이면 전체 게시판)
+	public List<Article> getArticles(int boardId, int offset, int limit) {
+		return articleListCache.get("articles:" + boardId + ":" + offset + ":" + limit,
+				() -> articleDao.getArticles(boardId, offset, limit), getArticleTag(boardId));
+	}
+
+	// afterId 다음부터 이어서 가져오기 (boardId가 0이면 전체 게시판)
+	public List<Article> getArticlesAfter(int boardId, int afterId, int limit) {
+		return articleDao.getArticlesAfter(boardId, afterId, limit);
+	}
+
+	public int getArticleCount(int boardId) {
+		return countCache.get("articleCount:" + boardId, () -> articleDao.getArticleCount(boardId), getArticleTag(boardId));
+	}
+
+	// 검색 (한 페이지에 10개)
+	public SearchResult search(String keyword, int page) {
+		return articleDao.search(keyword, (page - 1) * 10, 10);
+	}
+
+}
+
+class MemberService {
+	private MemberDao memberDao;
+
+	MemberService() {
+		memberDao = Factory.getMemberDao();
+	}
+
+	public boolean isUsedLoginId(String loginId) {
+		Member member = memberDao.getMemberByLoginId(loginId);
+
+		if (member == null) {
+			return false;
+		}
+
+		return true;
+	}
+
+	public Member getMemberByLoginIdAndLoginPw(String loginId, String loginPw) {
+		return memberDao.getMemberByLoginIdAndLoginPw(loginId, loginPw);
+	}
+
+	public int join(String loginId, String loginPw, String name) {
+		Member oldMember = memberDao.getMemberByLoginId(loginId);
+
+		if (oldMember != null) {
+			return -1;
+		}
+
+		Member member = new Member(loginId, loginPw, name);
+		int id = memberDao.save(member);
+		Factory.getEventBus().publish("member", id);
+
+		return id;
+	}
+
+	public Member getMember(int id) {
+		return memberDao.getMember(id);
+	}
+}
+
+// Template
+// site_template 파일을 한번만 분석해서 글자 조각과 ${이름} 자리들로 나눠 둔다.
+// ${이름} : 값으로 바꿔 넣는다. (값이 없으면 ${이름} 그대로 둔다)
+// ${#이름} ... ${/이름} : 반복 블록, 값으로 받은 행(Map)마다 한번씩 그린다.
+// 그릴 때는 넘겨받은 StringBuilder에 이어 붙이기만 하므로 행이 많아도 복사가 반복되지 않는다.
+class Template {
+	private List<Segment> segments;
+	// 원본 내용의 해시 (템플릿이 바뀌면 다시 빌드하기 위해)
+	private long sourceHash;
+
+	private Template(List<Segment> segments, long sourceHash) {
+		this.segments = segments;
+		this.sourceHash = sourceHash;
+	}
+
+	public long getSourceHash() {
+		return sourceHash;
+	}
+
+	// 값 대신 넘겨서 직접 그리게 할 때
+	interface Writer {
+		void write(StringBuilder out);
+	}
+
+	// 반복 블록의 행 하나를 채운다
+	interface RowBinder<E> {
+		void bind(E item, int index, Map<String, Object> row);
+	}
+
+	public void render(StringBuilder out, Map<String, ?> vars) {
+		render(out, segments, new Scope(vars, null));
+	}
+
+	public String render(Map<String, ?> vars) {
+		StringBuilder out = new StringBuilder();
+		render(out, vars);
+		return out.toString();
+	}
+
+	// 반복 블록 값 : items 하나당 행 하나, 행 Map은 하나를 계속 재사용한다.
+	public static <E> Iterable<Map<String, Object>> rows(List<E> items, RowBinder<E> binder) {
+		return () -> new Iterator<Map<String, Object>>() {
+			private int index = 0;
+			private Map<String, Object> row = new HashMap<>();
+
+			public boolean hasNext() {
+				return index < items.size();
+			}
+
+			public Map<String, Object> next() {
+				row.clear();
+				binder.bind(items.get(index), index, row);
+				index++;
+				return row;
+			}
+		};
+	}
+
+	private static void render(StringBuilder out, List<Segment> segments, Scope scope) {
+		for (Segment segment : segments) {
+			if (segment.text != null) {
+				out.append(segment.text);
+				continue;
+			}
+
+			Object value = scope.get(segment.name);
+
+			if (segment.children == null) {
+				if (value == null) {
+					out.append("${").append(segment.name).append("}");
+				} else if (value instanceof Writer) {
+					((Writer) value).write(out);
+				} else if (value instanceof CharSequence) {
+					out.append((CharSequence) value);
+				} else {
+					out.append(value);
+				}
+			} else if (value instanceof Iterable) {
+				for (Object row : (Iterable<?>) value) {
+					render(out, segment.children, new Scope((Map<?, ?>) row, scope));
+				}
+			}
+		}
+	}
+
+	public static Template compile(String text) {
+		List<Segment> root = new ArrayList<>();
+		// 열려있는 블록들
+		List<List<Segment>> stack = new ArrayList<>();
+		List<String> blockNames = new ArrayList<>();
+		List<Segment> current = root;
+
+		int pos = 0;
+
+		while (pos < text.length()) {
+			int start = text.indexOf("${", pos);
+			int end = start == -1 ? -1 : text.indexOf('}', start + 2);
+
+			if (start == -1 || end == -1) {
+				current.add(Segment.text(text.substring(pos)));
+				break;
+			}
+
+			String name = text.substring(start + 2, end);
+			boolean isBlockTag = name.startsWith("#") || name.startsWith("/");
+			int textEnd = start;
+			int next = end + 1;
+
+			// 한 줄에 블록 태그만 있으면 그 줄은 결과에 남기지 않는다
+			if (isBlockTag) {
+				int lineStart = text.lastIndexOf('\n', start - 1) + 1;
+
+				if (lineStart >= pos && text.substring(lineStart, start).trim().isEmpty()
+						&& next < text.length() && text.charAt(next) == '\n') {
+					textEnd = lineStart;
+					next++;
+				}
+			}
+
+			if (textEnd > pos) {
+				current.add(Segment.text(text.substring(pos, textEnd)));
+			}
+
+			if (name.startsWith("#")) {
+				Segment block = Segment.block(name.substring(1));
+				current.add(block);
+				stack.add(current);
+				blockNames.add(block.name);
+				current = block.children;
+			} else if (name.startsWith("/") && blockNames.isEmpty() == false
+					&& blockNames.get(blockNames.size() - 1).equals(name.substring(1))) {
+				blockNames.remove(blockNames.size() - 1);
+				current = stack.remove(stack.size() - 1);
+			} else if (isBlockTag) {
+				current.add(Segment.text(text.substring(start, end + 1)));
+			} else {
+				current.add(Segment.var(name));
+			}
+
+			pos = next;
+		}
+
+		return new Template(root, Util.hash64(text));
+	}
+
+	// 글자 조각(text) / 자리(name) / 반복 블록(name + children)
+	private static class Segment {
+		String text;
+		String name;
+		List<Segment> children;
+
+		static Segment text(String text) {
+			Segment segment = new Segment();
+			segment.text = text;
+			return segment;
+		}
+
+		static Segment var(String name) {
+			Segment segment = new Segment();
+			segment.name = name;
+			return segment;
+		}
+
+		static Segment block(String name) {
+			Segment segment = var(name);
+			segment.children = new ArrayList<>();
+			return segment;
+		}
+	}
+
+	// 반복 블록 안에서는 행의 값을 먼저 찾고 없으면 바깥 값을 찾는다
+	private static class Scope {
+		Map<?, ?> vars;
+		Scope parent;
+
+		Scope(Map<?, ?> vars, Scope parent) {
+			this.vars = vars;
+			this.parent = parent;
+		}
+
+		Object get(String name) {
+			for (Scope scope = this; scope != null; scope = scope.parent) {
+				Object value = scope.vars.get(name);
+
+				if (value != null) {
+					return value;
+				}
+			}
+
+			return null;
+		}
+	}
+}
+
+// Templates
+// 템플릿 파일 경로 -> 분석된 템플릿
+// 파일이 수정되었을 때만 다시 분석한다.
+class Templates {
+	private static Map<String, Template> templates = new ConcurrentHashMap<>();
+	private static Map<String, Long> lastModifieds = new ConcurrentHashMap<>();
+
+	public static Template get(String filePath) {
+		long lastModified = new File(filePath).lastModified();
+		Template template = templates.get(filePath);
+
+		if (template == null || lastModifieds.get(filePath) != lastModified) {
+			template = Template.compile(Util.getFileContents(filePath));
+			templates.put(filePath, template);
+			lastModifieds.put(filePath, lastModified);
+		}
+
+		return template;
+	}
+}
+
+// SiteTemplates
+// 사이트 페이지를 그리는 템플릿들 (빌드 한번, 또는 build serve 요청 하나 동안 같은 것을 쓴다)
+class SiteTemplates {
+	private Template home;
+	private Template stat;
+	private Template head;
+	private Template foot;
+	private Template list;
+	private Template detail;
+
+	public static SiteTemplates load() {
+		SiteTemplates templates = new SiteTemplates();
+		templates.home = Templates.get("site_template/home/index.html");
+		templates.stat = Templates.get("site_template/stat/index.html");
+		templates.head = Templates.get("site_template/part/head.html");
+		templates.foot = Templates.get("site_template/part/foot.html");
+		templates.list = Templates.get("site_template/article/list.html");
+		templates.detail = Templates.get("site_template/article/detail.html");
+
+		return templates;
+	}
+
+	// 템플릿 중 하나라도 바뀌면 달라진다
+	public long getSourceHash() {
+		long hash = Util.hash64(home.getSourceHash(), stat.getSourceHash());
+		hash = Util.hash64(hash, head.getSourceHash());
+		hash = Util.hash64(hash, foot.getSourceHash());
+		hash = Util.hash64(hash, list.getSourceHash());
+
+		return Util.hash64(hash, detail.getSourceHash());
+	}
+
+	public Template getHome() {
+		return home;
+	}
+
+	public Template getStat() {
+		return stat;
+	}
+
+	public Template getHead() {
+		return head;
+	}
+
+	public Template getFoot() {
+		return foot;
+	}
+
+	public Template getList() {
+		return list;
+	}
+
+	public Template getDetail() {
+		return detail;
+	}
+}
+
+// Dao
+class ArticleDao {
+	DB db;
+
+	ArticleDao() {
+		db = Factory.getDB();
+	}
+
+	// 게시물 삭제
+	public int articleDelete(int id) {
+		db.articleDelete(id);
+		return id;
+	}
+
+	// 게시물 수정
+	public int modifyArticle(Article modifyArticle, int id) {
+		return db.modifyArticle(modifyArticle, id);
+	}
+
+	public Article getArticle(int articleId) {
+		return db.getArticle(articleId);
+	}
+
+	// 게시판 삭제
+	public void deleteBoard(int id) {
+		db.deleteBoard(id);
+	}
+
+	// code로 board를 가져옴
+	public Board getBoard(String boardCode) {
+		return db.getBoard(boardCode);
+	}
+
+	// id로 board를 가져옴
+	public Board getBoard(int id) {
+		return db.getBoard(id);
+	}
+
+	public List<Article> getArticlesByBoardCode(String code) {
+		return db.getArticlesByBoardCode(code);
+	}
+
+	public List<Board> getBoards() {
+		return db.getBoards();
+	}
+
+	public Board getBoardByCode(String code) {
+		return db.getBoardByCode(code);
+	}
+
+	public int saveBoard(Board board) {
+		return db.saveBoard(board);
+	}
+
+	// 게시물 저장
+	public int save(Article article) {
+		return db.saveArticle(article);
+	}
+
+	public List<Article> getArticles() {
+		return db.getArticles();
+	}
+
+	public List<Article> getArticles(int boardId, int offset, int limit) {
+		return db.getArticles(boardId, offset, limit);
+	}
+
+	public List<Article> getArticlesAfter(int boardId, int afterId, int limit) {
+		return db.getArticlesAfter(boardId, afterId, limit);
+	}
+
+	public int getArticleCount(int boardId) {
+		return db.getArticleCount(boardId);
+	}
+
+	public SearchResult search(String keyword, int offset, int limit) {
+		return db.searchArticles(keyword, offset, limit);
+	}
+
+	public DBSnapshot openSnapshot() {
+		return db.openSnapshot();
+	}
+
+	public int getPrevArticleId(int boardId, int id) {
+		return db.getPrevArticleId(boardId, id);
+	}
+
+	public int getNextArticleId(int boardId, int id) {
+		return db.getNextArticleId(boardId, id);
+	}
+
+	public int saveReply(ArticleReply reply) {
+		return db.saveReply(reply);
+	}
+
+	public ArticleReply getReply(int id) {
+		return db.getReply(id);
+	}
+
+	public List<ArticleReply> getReplies(int articleId) {
+		return db.getReplies(articleId);
+	}
+
+	public int getReplyCount(int articleId) {
+		return db.getReplyCount(articleId);
+	}
+
+	public void deleteReply(int id) {
+		db.deleteReply(id);
+	}
+
+	public void increaseHit(int id) {
+		db.increaseArticleHit(id);
+	}
+
+	public void increaseLike(int id) {
+		db.increaseArticleLike(id);
+	}
+
+	public long getHitCount(int id) {
+		return db.getArticleHitCount(id);
+	}
+
+	public long getLikeCount(int id) {
+		return db.getArticleLikeCount(id);
+	}
+}
+
+class MemberDao {
+	DB db;
+
+	MemberDao() {
+		db = Factory.getDB();
+	}
+
+	public Member getMemberByLoginIdAndLoginPw(String loginId, String loginPw) {
+		return db.getMemberByLoginIdAndLoginPw(loginId, loginPw);
+	}
+
+	public Member getMemberByLoginId(String loginId) {
+		return db.getMemberByLoginId(loginId);
+	}
+
+	public Member getMember(int id) {
+		return db.getMember(id);
+	}
+
+	public int save(Member member) {
+		return db.saveMember(member);
+	}
+}
+
+// DB
+class DB {
+	private Map<String, Table<?>> tables;
+	// 타입을 잃지 않도록 테이블마다 따로 들고 있는다 (tables는 이름 순서로 모두 돌 때만 쓴다)
+	private Table<Article> articleTable;
+	private Table<Board> boardTable;
+	private Table<Member> memberTable;
+	private Table<ArticleReply> replyTable;
+	// 게시물 제목/내용 검색용 역색인
+	private SearchIndex searchIndex;
+	// 게시물 조회수/추천수 (게시물 row와 따로 저장)
+	private ArticleCounters articleCounters;
+	// 게시판별 게시물 id 순서 (이전글/다음글)
+	private BoardArticleIndex boardArticleIndex;
+	// 버전 번호와 열려있는 스냅샷 (모든 테이블이 같이 쓴다)
+	private VersionClock versionClock = new VersionClock();
+	private BackupEngine backupEngine;
+
+	public DB() {
+		String dbDirPath = getDirPath();
+		Util.makeDir(dbDirPath);
+
+		tables = new HashMap<>();
+
+		String storageMode = getStorageMode();
+		boolean writeBehind = isWriteBehind();
+
+		articleTable = new Table<>(Article.class, dbDirPath, storageMode, writeBehind);
+		boardTable = new Table<>(Board.class, dbDirPath, storageMode, writeBehind);
+		memberTable = new Table<>(Member.class, dbDirPath, storageMode, writeBehind);
+		replyTable = new Table<>(ArticleReply.class, dbDirPath, storageMode, writeBehind);
+
+		// 인덱스 등록 (등록할 때 메모리의 row들로 다시 만들어진다)
+		articleTable.addIndex("boardId", Article::getBoardId, false);
+		boardTable.addIndex("code", Board::getCode, true);
+		memberTable.addIndex("loginId", Member::getLoginId, true);
+		// 게시물 id -> 댓글 id들
+		replyTable.addIndex("articleId", ArticleReply::getArticleId, false);
+
+		tables.put("article", articleTable);
+		tables.put("board", boardTable);
+		tables.put("member", memberTable);
+		tables.put("reply", replyTable);
+
+		for (Table<?> table : tables.values()) {
+			table.setVersionClock(versionClock);
+		}
+
+		// 검색 인덱스 : 저장된 것을 읽고 게시물 테이블과 다른 부분만 다시 색인한다
+		searchIndex = new SearchIndex(dbDirPath + "/search");
+		searchIndex.sync(articleTable.getRows());
+
+		articleCounters = new ArticleCounters(dbDirPath + "/articleCounter");
+		boardArticleIndex = new BoardArticleIndex(articleTable.getRows());
+	}
+
+	// 지금 시점의 DB를 그대로 읽을 수 있는 스냅샷을 연다.
+	// 모든 테이블의 쓰기를 잠깐 멈추고 버전 번호만 잡는다. (row를 복사하지 않는다)
+	// 그 뒤에 쓰기가 생기면 테이블이 예전 row를 남겨두고, 스냅샷은 그것을 읽는다.
+	public DBSnapshot openSnapshot() {
+		List<Table<?>> lockedTables = getTablesByName();
+
+		for (Table<?> table : lockedTables) {
+			table.lockWrites();
+		}
+
+		try {
+			long version = versionClock.getVersion();
+			versionClock.open(version);
+
+			return new DBSnapshot(this, articleTable, boardTable, memberTable, replyTable, version);
+		} finally {
+			for (Table<?> table : lockedTables) {
+				table.unlockWrites();
+			}
+		}
+	}
+
+	// 여러 테이블을 같이 잠글 때는 항상 이름 순서로 (서로 기다리다 멈추지 않도록)
+	private List<Table<?>> getTablesByName() {
+		List<Table<?>> tablesByName = new ArrayList<>();
+
+		for (String tableName : new TreeSet<>(tables.keySet())) {
+			tablesByName.add(tables.get(tableName));
+		}
+
+		return tablesByName;
+	}
+
+	// 스냅샷을 닫으면 남은 스냅샷 중 가장 오래된 것보다 예전 row들은 버린다
+	// 지금 버전을 먼저 읽어두고 그보다 새 row는 남긴다.
+	// (정리하는 도중에 새 스냅샷이 열리면 그 스냅샷은 지금 버전 이후에 쓴 row들만 필요하다)
+	void closeSnapshot(long version) {
+		versionClock.close(version);
+
+		long currentVersion = versionClock.getVersion();
+		long oldestVersion = Math.min(versionClock.getOldestOpenVersion(), currentVersion);
+
+		for (Table<?> table : tables.values()) {
+			table.pruneVersions(oldestVersion);
+		}
+	}
+
+	public int getPrevArticleId(int boardId, int id) {
+		return boardArticleIndex.getPrevId(boardId, id);
+	}
+
+	public int getNextArticleId(int boardId, int id) {
+		return boardArticleIndex.getNextId(boardId, id);
+	}
+
+	public void increaseArticleHit(int id) {
+		articleCounters.increaseHit(id);
+	}
+
+	public void increaseArticleLike(int id) {
+		articleCounters.increaseLike(id);
+	}
+
+	public long getArticleHitCount(int id) {
+		return articleCounters.getHitCount(id);
+	}
+
+	public long getArticleLikeCount(int id) {
+		return articleCounters.getLikeCount(id);
+	}
+
+	// 게시물 삭제
+	public void articleDelete(int id) {
+		Article article = getArticle(id);
+
+		if (article != null) {
+			boardArticleIndex.remove(article.getBoardId(), id);
+		}
+
+		articleTable.delete(id);
+		searchIndex.removeArticle(id);
+		articleCounters.remove(id);
+
+		// 게시물의 댓글도 같이 삭제
+		for (ArticleReply reply : getReplies(id)) {
+			replyTable.delete(reply.getId());
+		}
+	}
+
+	public int saveReply(ArticleReply reply) {
+		return replyTable.saveRow(reply);
+	}
+
+	public ArticleReply getReply(int id) {
+		return replyTable.getRow(id);
+	}
+
+	// articleId 인덱스로 해당 게시물의 댓글만 가져온다 (id 순서)
+	public List<ArticleReply> getReplies(int articleId) {
+		return replyTable.getRowsByIndex("articleId", articleId);
+	}
+
+	public int getReplyCount(int articleId) {
+		return replyTable.getRowCountByIndex("articleId", articleId);
+	}
+
+	public void deleteReply(int id) {
+		replyTable.delete(id);
+	}
+
+	// 수정 (그 사이에 지워졌으면 -1)
+	public int modifyArticle(Article modifyArticle, int id) {
+		Article oldArticle = getArticle(id);
+		int modifiedId = articleTable.modify(modifyArticle, id);
+
+		if (modifiedId == -1) {
+			return -1;
+		}
+
+		searchIndex.addArticle(modifyArticle);
+
+		if (oldArticle != null && oldArticle.getBoardId() != modifyArticle.getBoardId()) {
+			boardArticleIndex.remove(oldArticle.getBoardId(), id);
+		}
+		boardArticleIndex.add(modifyArticle.getBoardId(), id);
+
+		return modifiedId;
+	}
+
+	public Article getArticle(int articleId) {
+		return articleTable.getRow(articleId);
+	}
+
+	// 게시판 삭제
+	public void deleteBoard(int id) {
+		boardTable.delete(id);
+	}
+
+	// boardId 인덱스로 해당 게시판 게시물만 가져온다
+	public List<Article> getArticlesByBoardCode(String code) {
+		Board board = getBoardByCode(code);
+
+		if (board == null) {
+			return new ArrayList<>();
+		}
+
+		return articleTable.getRowsByIndex("boardId", board.getId());
+	}
+
+	public Member getMemberByLoginIdAndLoginPw(String loginId, String loginPw) {
+		Member member = getMemberByLoginId(loginId);
+
+		if (member != null && member.getLoginPw().equals(loginPw)) {
+			return member;
+		}
+
+		return null;
+	}
+
+	public Member getMemberByLoginId(String loginId) {
+		return memberTable.getRowByIndex("loginId", loginId);
+	}
+
+	public List<Member> getMembers() {
+		return memberTable.getRows();
+	}
+
+	// 일치하는 코드의 보드 리턴
+	public Board getBoardByCode(String code) {
+		return boardTable.getRowByIndex("code", code);
+	}
+
+	// code로 보드 갖고옴
+	public Board getBoard(String code) {
+		return getBoardByCode(code);
+	}
+
+	// id로 보드 갖고옴
+	public Board getBoard(int id) {
+		return boardTable.getRow(id);
+	}
+
+	public List<Board> getBoards() {
+		return boardTable.getRows();
+	}
+
+	public Member getMember(int id) {
+		return memberTable.getRow(id);
+	}
+
+	public int saveBoard(Board board) {
+		return boardTable.saveRow(board);
+	}
+
+	public String getDirPath() {
+		return "db";
+	}
+
+	// 저장 방식
+	// file : row 하나당 json 파일 하나 (기본)
+	// log : 테이블 하나당 추가전용 로그 파일 하나 (-Dssg.storage=log)
+	public String getStorageMode() {
+		return System.getProperty("ssg.storage", "file");
+	}
+
+	// 쓰기를 모아서 백그라운드에서 하는지 (-Dssg.writeBehind=true)
+	public boolean isWriteBehind() {
+		return Boolean.getBoolean("ssg.writeBehind");
+	}
+
+	// 아직 디스크에 안 쓴 변경사항을 모두 쓴다
+	public void flush() {
+		for (Table<?> table : tables.values()) {
+			table.flush();
+		}
+
+		searchIndex.save();
+		articleCounters.flush();
+	}
+
+	public int saveMember(Member member) {
+		return memberTable.saveRow(member);
+	}
+
+	public List<Article> getArticles() {
+		return articleTable.getRows();
+	}
+
+	public int saveArticle(Article article) {
+		int id = articleTable.saveRow(article);
+		searchIndex.addArticle(article);
+		boardArticleIndex.add(article.getBoardId(), id);
+
+		return id;
+	}
+
+	// 검색어가 제목이나 내용에 모두 들어있는 게시물을 점수 순으로 offset번째부터 limit개
+	public SearchResult searchArticles(String keyword, int offset, int limit) {
+		SearchResult result = searchIndex.search(keyword, offset, limit);
+
+		for (int id : result.getIds()) {
+			Article article = getArticle(id);
+
+			if (article != null) {
+				result.getArticles().add(article);
+			}
+		}
+
+		return result;
+	}
+
+	// 게시물 offset번째부터 limit개 (boardId가 0이면 전체 게시판)
+	public List<Article> getArticles(int boardId, int offset, int limit) {
+		if (boardId == 0) {
+			return articleTable.getRows(offset, limit);
+		}
+
+		return articleTable.getRowsByIndex("boardId", boardId, offset, limit);
+	}
+
+	// id가 afterId보다 큰 게시물 limit개 (boardId가 0이면 전체 게시판)
+	public List<Article> getArticlesAfter(int boardId, int afterId, int limit) {
+		if (boardId == 0) {
+			return articleTable.getRowsAfter(afterId, limit);
+		}
+
+		return articleTable.getRowsByIndexAfter("boardId", boardId, afterId, limit);
+	}
+
+	public int getArticleCount(int boardId) {
+		if (boardId == 0) {
+			return articleTable.getRowCount();
+		}
+
+		return articleTable.getRowCountByIndex("boardId", boardId);
+	}
+
+	// 프로그램 종료
+	public void close() {
+		for (Table<?> table : tables.values()) {
+			table.close();
+		}
+
+		searchIndex.save();
+		articleCounters.close();
+
+		// 백그라운드에서 쓰고 있는 백업이 끝날 때까지 기다린다
+		synchronized (this) {
+			if (backupEngine != null) {
+				backupEngine.close();
+			}
+		}
+	}
+
+	// 백업
+	// 모든 테이블의 row들을 한번에 복사해두고(메모리에서 참조만 복사), 압축 파일 쓰기는 백그라운드에서 한다.
+	// 그래서 파일을 쓰는 동안에도 글쓰기 등은 막히지 않는다.
+	// 복사하는 동안은 openSnapshot 처럼 모든 테이블의 쓰기를 (이름 순서로 잠가서) 멈추므로 테이블끼리 어긋나지 않는다.
+	public String backup(boolean full) {
+		Map<String, Map<Integer, Object>> snapshot = new TreeMap<>();
+		Map<String, Integer> lastIds = new TreeMap<>();
+		List<Table<?>> lockedTables = getTablesByName();
+
+		for (Table<?> table : lockedTables) {
+			table.lockWrites();
+		}
+
+		try {
+			for (Table<?> table : lockedTables) {
+				snapshot.put(table.getTableName(), table.snapshotRows());
+				lastIds.put(table.getTableName(), table.getLastId());
+			}
+		} finally {
+			for (Table<?> table : lockedTables) {
+				table.unlockWrites();
+			}
+		}
+
+		return getBackupEngine().backup(snapshot, lastIds, full);
+	}
+
+	// 모든 테이블의 row 파일을 하위 폴더 구조로 옮긴다
+	public int migrateToShards() {
+		int movedCount = 0;
+
+		for (Table<?> table : tables.values()) {
+			movedCount += table.migrateToShards();
+		}
+
+		return movedCount;
+	}
+
+	// 복원 (백업 파일이 증분이면 전체 백업부터 차례로 적용한다)
+	public int restore(String archiveName, String targetDirPath) {
+		return getBackupEngine().restore(archiveName, targetDirPath);
+	}
+
+	private synchronized BackupEngine getBackupEngine() {
+		if (backupEngine == null) {
+			backupEngine = new BackupEngine("backup");
+		}
+
+		return backupEngine;
+	}
+}
+
+// BackupEngine
+// backup/ 폴더에 zip 하나로 백업한다.
+// 전체 백업 : 모든 row, 증분 백업 : 지난 백업 이후 내용(해시)이 바뀐 row + 지워진 row의 id
+// 백업한 row들의 해시는 backup/catalog.json 에 남겨두고 다음 증분 백업의 기준으로 쓴다.
+// 압축 파일 안 : backup.json(BackupManifest), <테이블>/<id>.json
+class BackupEngine {
+	private String backupDirPath;
+	// 백업은 한번에 하나씩 차례로
+	private ExecutorService executor;
+	// 기준이 될 백업이 있는지 (없으면 증분 백업을 해도 전체 백업이 된다)
+	private boolean hasBase;
+
+	BackupEngine(String backupDirPath) {
+		this.backupDirPath = backupDirPath;
+		this.executor = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "backup");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		BackupCatalog catalog = BackupCatalog.load(backupDirPath);
+		this.hasBase = catalog.getLastBackup() != null
+				&& Util.isFileExists(backupDirPath + "/" + catalog.getLastBackup());
+	}
+
+	// 남은 백업을 다 쓰고 나서 쓰레드를 끝낸다
+	public void close() {
+		executor.shutdown();
+
+		try {
+			if (executor.awaitTermination(1, TimeUnit.MINUTES) == false) {
+				System.out.println("백업을 끝내지 못했습니다.");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// 파일 이름을 바로 돌려주고 실제 쓰기는 백그라운드에서
+	public synchronized String backup(Map<String, Map<Integer, Object>> snapshot, Map<String, Integer> lastIds,
+			boolean full) {
+		if (hasBase == false) {
+			full = true;
+			hasBase = true;
+		}
+
+		boolean fullBackup = full;
+		String archiveName = new SimpleDateFormat("yyyyMMddHHmmssSSS").format(Calendar.getInstance().getTime())
+				+ (full ? "-full" : "-incr") + ".zip";
+
+		executor.submit(() -> {
+			try {
+				writeArchive(archiveName, snapshot, lastIds, fullBackup);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		});
+
+		return archiveName;
+	}
+
+	private void writeArchive(String archiveName, Map<String, Map<Integer, Object>> snapshot,
+			Map<String, Integer> lastIds, boolean full) throws IOException {
+		Util.makeDir(backupDirPath);
+
+		BackupCatalog catalog = BackupCatalog.load(backupDirPath);
+
+		// 기준이 되는 백업이 없으면 전체 백업
+		if (catalog.getLastBackup() == null || Util.isFileExists(backupDirPath + "/" + catalog.getLastBackup()) == false) {
+			full = true;
+		}
+
+		BackupManifest manifest = new BackupManifest();
+		manifest.setName(archiveName);
+		manifest.setParent(full ? null : catalog.getLastBackup());
+		manifest.setRegDate(Util.getNowDateStr());
+		manifest.setLastIds(lastIds);
+
+		Map<String, Map<Integer, Long>> hashes = new TreeMap<>();
+		Path tmpPath = Paths.get(backupDirPath, archiveName + ".tmp");
+
+		try (FileChannel channel = FileChannel.open(tmpPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+				ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+			for (Map.Entry<String, Map<Integer, Object>> table : snapshot.entrySet()) {
+				String tableName = table.getKey();
+				Map<Integer, Long> oldHashes = full ? new HashMap<>() : catalog.getHashes(tableName);
+				Map<Integer, Long> tableHashes = new TreeMap<>();
+				List<Integer> deletedIds = new ArrayList<>();
+
+				for (Map.Entry<Integer, Object> row : table.getValue().entrySet()) {
+					byte[] json = Util.toJsonBytes(row.getValue());
+					long hash = Util.hash64(json);
+					tableHashes.put(row.getKey(), hash);
+
+					if (Long.valueOf(hash).equals(oldHashes.get(row.getKey()))) {
+						continue;
+					}
+
+					zip.putNextEntry(new ZipEntry(tableName + "/" + row.getKey() + ".json"));
+					zip.write(json);
+					zip.closeEntry();
+				}
+
+				for (int id : oldHashes.keySet()) {
+					if (tableHashes.containsKey(id) == false) {
+						deletedIds.add(id);
+					}
+				}
+
+				manifest.getDeletedIds().put(tableName, deletedIds);
+				hashes.put(tableName, tableHashes);
+			}
+
+			zip.putNextEntry(new ZipEntry(BackupManifest.ENTRY_NAME));
+			zip.write(Util.toJsonBytes(manifest));
+			zip.closeEntry();
+			zip.finish();
+			channel.force(true);
+		}
+
+		Files.move(tmpPath, Paths.get(backupDirPath, archiveName), StandardCopyOption.ATOMIC_MOVE);
+
+		catalog.setLastBackup(archiveName);
+		catalog.setHashes(hashes);
+		catalog.save(backupDirPath);
+	}
+
+	// 복원한 row 수, 실패하면 -1
+	public int restore(String archiveName, String targetDirPath) {
+		if (new File(targetDirPath).exists()) {
+			return -1;
+		}
+
+		// 증분 백업이면 부모를 따라가서 전체 백업부터 차례로 적용
+		// 중간에 백업 파일이나 그 안의 backup.json을 읽을 수 없으면 복원하지 않는다
+		List<String> chain = new ArrayList<>();
+		List<BackupManifest> manifests = new ArrayList<>();
+
+		for (String name = archiveName; name != null;) {
+			if (Util.isFileExists(backupDirPath + "/" + name) == false) {
+				return -1;
+			}
+
+			BackupManifest manifest = readManifest(name);
+
+			if (manifest == null) {
+				return -1;
+			}
+
+			chain.add(0, name);
+			manifests.add(0, manifest);
+			name = manifest.getParent();
+		}
+
+		Util.makeDir(targetDirPath);
+
+		int rowCount = 0;
+
+		for (int i = 0; i < chain.size(); i++) {
+			BackupManifest manifest = manifests.get(i);
+
+			for (Map.Entry<String, List<Integer>> deleted : manifest.getDeletedIds().entrySet()) {
+				for (int id : deleted.getValue()) {
+					Util.deleteFileContents(targetDirPath + "/" + deleted.getKey() + "/" + id + ".json");
+				}
+			}
+
+			int extractedCount = extractRows(chain.get(i), targetDirPath);
+
+			// 풀다가 실패하면 쓰던 폴더를 지운다
+			if (extractedCount < 0) {
+				Util.deleteDir(targetDirPath);
+				return -1;
+			}
+
+			rowCount += extractedCount;
+		}
+
+		BackupManifest manifest = manifests.get(manifests.size() - 1);
+
+		for (Map.Entry<String, Integer> lastId : manifest.getLastIds().entrySet()) {
+			Util.makeDir(targetDirPath + "/" + lastId.getKey());
+			Util.writeFileContents(targetDirPath + "/" + lastId.getKey() + "/lastId.txt", lastId.getValue());
+		}
+
+		return rowCount;
+	}
+
+	// row 파일들을 그대로 풀어서 쓴다 (실패하면 -1)
+	private int extractRows(String archiveName, String targetDirPath) {
+		int rowCount = 0;
+
+		try (FileChannel channel = FileChannel.open(Paths.get(backupDirPath, archiveName), StandardOpenOption.READ);
+				ZipInputStream zip = new ZipInputStream(new BufferedInputStream(Channels.newInputStream(channel)))) {
+			ZipEntry entry;
+
+			while ((entry = zip.getNextEntry()) != null) {
+				if (entry.getName().equals(BackupManifest.ENTRY_NAME)) {
+					continue;
+				}
+
+				Path rowPath = Paths.get(targetDirPath, entry.getName());
+				Files.createDirectories(rowPath.getParent());
+				Files.copy(zip, rowPath, StandardCopyOption.REPLACE_EXISTING);
+				rowCount++;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return -1;
+		}
+
+		return rowCount;
+	}
+
+	// 백업 파일 안의 backup.json (없거나 읽을 수 없으면 null)
+	private BackupManifest readManifest(String archiveName) {
+		try (FileChannel channel = FileChannel.open(Paths.get(backupDirPath, archiveName), StandardOpenOption.READ);
+				ZipInputStream zip = new ZipInputStream(new BufferedInputStream(Channels.newInputStream(channel)))) {
+			ZipEntry entry;
+
+			while ((entry = zip.getNextEntry()) != null) {
+				if (entry.getName().equals(BackupManifest.ENTRY_NAME)) {
+					return Util.getObjectFromJson(zip.readAllBytes(), BackupManifest.class);
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		return null;
+	}
+}
+
+// BackupManifest
+// 백업 파일 하나의 정보 (압축 파일 안의 backup.json)
+class BackupManifest {
+	static final String ENTRY_NAME = "backup.json";
+
+	private String name;
+	// 증분 백업의 기준 백업 파일명 (전체 백업이면 null)
+	private String parent;
+	private String regDate;
+	private Map<String, Integer> lastIds;
+	// 테이블 -> 기준 백업 이후 지워진 id들
+	private Map<String, List<Integer>> deletedIds;
+
+	public BackupManifest() {
+		lastIds = new TreeMap<>();
+		deletedIds = new TreeMap<>();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public String getParent() {
+		return parent;
+	}
+
+	public void setParent(String parent) {
+		this.parent = parent;
+	}
+
+	public String getRegDate() {
+		return regDate;
+	}
+
+	public void setRegDate(String regDate) {
+		this.regDate = regDate;
+	}
+
+	public Map<String, Integer> getLastIds() {
+		return lastIds;
+	}
+
+	public void setLastIds(Map<String, Integer> lastIds) {
+		this.lastIds = lastIds;
+	}
+
+	public Map<String, List<Integer>> getDeletedIds() {
+		return deletedIds;
+	}
+
+	public void setDeletedIds(Map<String, List<Integer>> deletedIds) {
+		this.deletedIds = deletedIds;
+	}
+}
+
+// BackupCatalog
+// 마지막 백업 파일명과 그때 백업된 row들의 해시 (backup/catalog.json)
+class BackupCatalog {
+	private String lastBackup;
+	// 테이블 -> id -> 해시
+	private Map<String, Map<Integer, Long>> hashes;
+
+	public BackupCatalog() {
+		hashes = new TreeMap<>();
+	}
+
+	public static BackupCatalog load(String backupDirPath) {
+		String filePath = backupDirPath + "/catalog.json";
+		BackupCatalog catalog = null;
+
+		if (Util.isFileExists(filePath)) {
+			catalog = Util.getObjectFromJson(filePath, BackupCatalog.class);
+		}
+
+		return catalog == null ? new BackupCatalog() : catalog;
+	}
+
+	public void save(String backupDirPath) {
+		Util.writeFileContentsAtomically(backupDirPath + "/catalog.json", new String(Util.toJsonBytes(this)));
+	}
+
+	public Map<Integer, Long> getHashes(String tableName) {
+		Map<Integer, Long> tableHashes = hashes.get(tableName);
+		return tableHashes == null ? new HashMap<>() : tableHashes;
+	}
+
+	public String getLastBackup() {
+		return lastBackup;
+	}
+
+	public void setLastBackup(String lastBackup) {
+		this.lastBackup = lastBackup;
+	}
+
+	public Map<String, Map<Integer, Long>> getHashes() {
+		return hashes;
+	}
+
+	public void setHashes(Map<String, Map<Integer, Long>> hashes) {
+		this.hashes = hashes;
+	}
+}
+
+// Table
+// 여러 쓰레드에서 같이 쓴다. (CLI 쓰레드의 쓰기, 자동빌드 쓰레드의 읽기 등)
+// 읽기는 잠그지 않는다. row 객체는 고치지 않고 통째로 바꿔 넣기 때문에 읽는 쪽에서 반쯤 바뀐 row를 볼 일이 없다.
+// 쓰기는 id별 줄무늬 락(ROW_LOCK_STRIPES개)으로 같은 row에 대한 쓰기만 순서대로 하고,
+// 테이블 전체의 스냅샷(백업)이 필요할 때만 tableLock의 쓰기 락으로 잠깐 모든 쓰기를 멈춘다.
+class Table<T> {
+	private static final int ROW_LOCK_STRIPES = 16;
+	// 결과 리스트를 처음 만들 때 잡아두는 최대 크기 (limit이 아주 커도 미리 크게 잡지 않는다)
+	private static final int MAX_INITIAL_CAPACITY = 1024;
+
+	private Class<T> dataCls;
+	private String tableName;
+	private String tableDirPath;
+	// 메모리에 올려둔 row들 (id 순서 유지)
+	private ConcurrentSkipListMap<Integer, T> rows;
+	// rows.size()는 전부 세기 때문에 따로 센다
+	private AtomicInteger rowCount = new AtomicInteger();
+	// 쓰기끼리는 읽기 락을 같이 잡고(서로 막지 않음), 스냅샷은 쓰기 락을 잡는다
+	private ReentrantReadWriteLock tableLock = new ReentrantReadWriteLock();
+	private ReentrantLock[] rowLocks;
+	// 이름 -> 인덱스
+	private Map<String, TableIndex<T>> indexes;
+	// row를 실제로 디스크에 저장하는 곳
+	private TableStorage<T> storage;
+	// 새 row의 id 발급기
+	private IdSequence idSequence;
+	// 스냅샷용 버전 번호 (DB가 넣어준다, 없으면 예전 row를 남기지 않는다)
+	private VersionClock versionClock;
+	// id -> 바뀌기 전의 row들 (최신이 앞). 열려있는 스냅샷이 있을 때만 남긴다.
+	private Map<Integer, RowVersion<T>> oldVersions = new ConcurrentHashMap<>();
+	// 가장 최근에 쓴 버전
+	private AtomicLong lastWriteVersion = new AtomicLong();
+
+	// version에서 바뀌기 전의 row (row가 null이면 그 전에는 없던 row)
+	private static class RowVersion<T> {
+		final long version;
+		final T row;
+		final RowVersion<T> older;
+
+		RowVersion(long version, T row, RowVersion<T> older) {
+			this.version = version;
+			this.row = row;
+			this.older = older;
+		}
+	}
+
+	public Table(Class<T> dataCls, String dbDirPath) {
+		this(dataCls, dbDirPath, "file");
+	}
+
+	public Table(Class<T> dataCls, String dbDirPath, String storageMode) {
+		this(dataCls, dbDirPath, storageMode, false);
+	}
+
+	// writeBehind : 저장을 바로 하지 않고 모아뒀다가 백그라운드에서 한꺼번에 쓴다
+	public Table(Class<T> dataCls, String dbDirPath, String storageMode, boolean writeBehind) {
+		this.dataCls = dataCls;
+		this.tableName = Util.lcfirst(dataCls.getCanonicalName());
+		this.tableDirPath = dbDirPath + "/" + this.tableName;
+
+		Util.makeDir(tableDirPath);
+
+		if (storageMode.equals("log")) {
+			storage = new LogTableStorage<>(dataCls, tableDirPath);
+		} else {
+			storage = new FileTableStorage<>(dataCls, tableDirPath);
+		}
+
+		if (writeBehind) {
+			storage = new WriteBehindTableStorage<>(dataCls, storage);
+		}
+
+		indexes = new ConcurrentHashMap<>();
+
+		rowLocks = new ReentrantLock[ROW_LOCK_STRIPES];
+
+		for (int i = 0; i < rowLocks.length; i++) {
+			rowLocks[i] = new ReentrantLock();
+		}
+
+		loadRows();
+	}
+
+	// id의 row를 쓰는 동안 잡는 락
+	private ReentrantLock getRowLock(int id) {
+		return rowLocks[Math.floorMod(id, rowLocks.length)];
+	}
+
+	private void lockRow(int id) {
+		tableLock.readLock().lock();
+		getRowLock(id).lock();
+	}
+
+	private void unlockRow(int id) {
+		getRowLock(id).unlock();
+		tableLock.readLock().unlock();
+	}
+
+	// 진행중인 쓰기가 끝나길 기다렸다가 쓰기를 막는다 (스냅샷을 열 때 잠깐)
+	void lockWrites() {
+		tableLock.writeLock().lock();
+	}
+
+	void unlockWrites() {
+		tableLock.writeLock().unlock();
+	}
+
+	void setVersionClock(VersionClock versionClock) {
+		this.versionClock = versionClock;
+	}
+
+	// 쓰기 직전에 (row 락을 잡은 상태로) 새 버전 번호를 받고, 스냅샷이 열려 있으면 지금 row를 남긴다
+	private void recordVersion(int id) {
+		if (versionClock == null) {
+			return;
+		}
+
+		long version = versionClock.next();
+
+		if (versionClock.hasOpenSnapshots()) {
+			T oldRow = rows.get(id);
+			oldVersions.compute(id, (key, newer) -> new RowVersion<>(version, oldRow, newer));
+		}
+
+		lastWriteVersion.accumulateAndGet(version, Math::max);
+	}
+
+	// version 이후로 이 테이블에 쓴 적이 없는지
+	boolean isUnchangedSince(long version) {
+		return lastWriteVersion.get() <= version;
+	}
+
+	// version 시점의 row
+	// 지금 row를 먼저 읽고 예전 row들을 본다. (쓰는 쪽은 예전 row를 먼저 남기고 바꾸기 때문에)
+	T getRow(int id, long version) {
+		T row = rows.get(id);
+
+		for (RowVersion<T> old = oldVersions.get(id); old != null && old.version > version; old = old.older) {
+			row = old.row;
+		}
+
+		return row;
+	}
+
+	// version 시점에 인덱스 값이 key인 row들의 id (indexName이 null이면 전체), 오름차순
+	int[] getIdsAt(String indexName, Object key, long version) {
+		TableIndex<T> index = indexName == null ? null : indexes.get(indexName);
+		TreeSet<Integer> candidateIds = new TreeSet<>(index == null ? rows.keySet() : index.getIds(key));
+		// 그 뒤에 바뀐 row들 (지워졌거나 인덱스 값이 바뀌었을 수 있다)
+		candidateIds.addAll(oldVersions.keySet());
+
+		int[] ids = new int[candidateIds.size()];
+		int count = 0;
+
+		for (int id : candidateIds) {
+			T row = getRow(id, version);
+
+			if (row != null && (index == null || Objects.equals(index.getKey(row), key))) {
+				ids[count++] = id;
+			}
+		}
+
+		return Arrays.copyOf(ids, count);
+	}
+
+	// oldestVersion 이하의 스냅샷은 없으므로 그보다 예전에 바뀐 row들은 버린다
+	void pruneVersions(long oldestVersion) {
+		for (int id : oldVersions.keySet()) {
+			oldVersions.computeIfPresent(id, (key, newest) -> {
+				List<RowVersion<T>> kept = new ArrayList<>();
+
+				for (RowVersion<T> old = newest; old != null && old.version > oldestVersion; old = old.older) {
+					kept.add(old);
+				}
+
+				RowVersion<T> chain = null;
+
+				for (int i = kept.size() - 1; i >= 0; i--) {
+					chain = new RowVersion<>(kept.get(i).version, kept.get(i).row, chain);
+				}
+
+				return chain;
+			});
+		}
+	}
+
+	// 인덱스 추가, 이미 메모리에 있는 row들로 바로 채운다.
+	public void addIndex(String name, Function<T, Object> keyGetter, boolean unique) {
+		TableIndex<T> index = new TableIndex<>(keyGetter, unique);
+
+		for (Map.Entry<Integer, T> entry : rows.entrySet()) {
+			index.add(entry.getValue(), entry.getKey());
+		}
+
+		indexes.put(name, index);
+	}
+
+	// unique 인덱스로 row 하나 찾기
+	public T getRowByIndex(String name, Object key) {
+		int id = indexes.get(name).getId(key);
+
+		if (id == 0) {
+			return null;
+		}
+
+		return rows.get(id);
+	}
+
+	// 인덱스로 row들 찾기 (id 순서)
+	public List<T> getRowsByIndex(String name, Object key) {
+		TableIndex<T> index = indexes.get(name);
+		Collection<Integer> ids = index.getIds(key);
+		// 동시 컬렉션의 size()는 전부 세므로 인덱스가 따로 세어둔 수를 쓴다
+		List<T> rowsByKey = new ArrayList<>(index.getCount(key));
+
+		for (int id : ids) {
+			T row = rows.get(id);
+
+			if (row != null) {
+				rowsByKey.add(row);
+			}
+		}
+
+		return rowsByKey;
+	}
+
+	// 인덱스로 찾은 row들 중 offset번째부터 limit개
+	public List<T> getRowsByIndex(String name, Object key, int offset, int limit) {
+		return getRowsByIds(indexes.get(name).getIds(key), offset, limit);
+	}
+
+	// 인덱스로 찾은 row들 중 id가 afterId보다 큰 것 limit개
+	public List<T> getRowsByIndexAfter(String name, Object key, int afterId, int limit) {
+		return getRowsByIds(indexes.get(name).getIdsAfter(key, afterId), 0, limit);
+	}
+
+	public int getRowCountByIndex(String name, Object key) {
+		return indexes.get(name).getCount(key);
+	}
+
+	// id 목록을 앞에서부터 건너뛰고 필요한 row만 꺼낸다 (전체를 복사하지 않는다)
+	private List<T> getRowsByIds(Collection<Integer> ids, int offset, int limit) {
+		// ids.size()는 전부 세므로 부르지 않는다
+		List<T> rowsByIds = new ArrayList<>(Math.min(limit, MAX_INITIAL_CAPACITY));
+		Iterator<Integer> iterator = ids.iterator();
+
+		for (int i = 0; i < offset && iterator.hasNext(); i++) {
+			iterator.next();
+		}
+
+		while (iterator.hasNext() && rowsByIds.size() < limit) {
+			T row = rows.get(iterator.next());
+
+			if (row != null) {
+				rowsByIds.add(row);
+			}
+		}
+
+		return rowsByIds;
+	}
+
+	// row가 바뀔 때 인덱스도 같이 바꿔준다.
+	private void putRow(int id, T data) {
+		T oldRow = rows.put(id, data);
+
+		if (oldRow == null) {
+			rowCount.incrementAndGet();
+		}
+
+		for (TableIndex<T> index : indexes.values()) {
+			if (oldRow != null) {
+				index.remove(oldRow, id);
+			}
+			index.add(data, id);
+		}
+	}
+
+	private void removeRow(int id) {
+		T oldRow = rows.remove(id);
+
+		if (oldRow == null) {
+			return;
+		}
+
+		rowCount.decrementAndGet();
+
+		for (TableIndex<T> index : indexes.values()) {
+			index.remove(oldRow, id);
+		}
+	}
+
+	// 프로그램 시작시 한번만 디스크에서 row들을 읽어 메모리에 올린다.
+	private void loadRows() {
+		rows = new ConcurrentSkipListMap<>(storage.loadRows());
+		rowCount.set(rows.size());
+
+		int maxId = rows.isEmpty() ? 0 : rows.lastKey();
+		idSequence = new IdSequence(getLastIdFilePath(), maxId);
+	}
+
+	// 수정 (없는 row면 -1)
+	// 확인하고 쓰는 사이에 다른 쓰레드가 지우지 못하도록 row 락을 잡은 채로 확인한다
+	public int modify(T data, int id) {
+		Dto dto = (Dto) data;
+
+		dto.setId(id);
+
+		lockRow(id);
+		try {
+			if (rows.containsKey(id) == false) {
+				return -1;
+			}
+
+			recordVersion(id);
+			storage.writeRow(id, data);
+			putRow(id, data);
+		} finally {
+			unlockRow(id);
+		}
+
+		return id;
+	}
+
+	public int saveRow(T data) {
+		Dto dto = (Dto) data;
+
+		if (dto.getId() == 0) {
+			dto.setId(idSequence.next());
+		}
+
+		int id = dto.getId();
+
+		lockRow(id);
+		try {
+			recordVersion(id);
+			storage.writeRow(id, data);
+			putRow(id, data);
+		} finally {
+			unlockRow(id);
+		}
+
+		return id;
+	};
+
+	private String getLastIdFilePath() {
+		return this.tableDirPath + "/lastId.txt";
+	}
+
+	public T getRow(int id) {
+		return rows.get(id);
+	}
+
+	public void close() {
+		flush();
+		idSequence.close();
+	}
+
+	// 아직 디스크에 안 쓴 변경사항을 모두 쓴다
+	public void flush() {
+		if (storage instanceof WriteBehindTableStorage) {
+			((WriteBehindTableStorage<T>) storage).flush();
+		}
+	}
+
+	public String getTableName() {
+		return tableName;
+	}
+
+	// row 파일들을 하위 폴더로 나눈다 (파일 저장 방식일 때만), 옮긴 파일 수
+	public int migrateToShards() {
+		flush();
+
+		TableStorage<T> baseStorage = storage;
+
+		if (baseStorage instanceof WriteBehindTableStorage) {
+			baseStorage = ((WriteBehindTableStorage<T>) baseStorage).getStorage();
+		}
+
+		if (baseStorage instanceof FileTableStorage) {
+			return ((FileTableStorage<T>) baseStorage).migrateToShards();
+		}
+
+		return 0;
+	}
+
+	// 백업용, 지금 row들의 복사본 (row 객체는 바뀌지 않고 통째로 교체되므로 참조만 복사한다)
+	// 복사하는 잠깐 동안만 쓰기를 멈춘다
+	public Map<Integer, Object> snapshotRows() {
+		tableLock.writeLock().lock();
+		try {
+			return new TreeMap<>(rows);
+		} finally {
+			tableLock.writeLock().unlock();
+		}
+	}
+
+	public int getLastId() {
+		return idSequence.getLastId();
+	}
+
+	// 삭제
+	void delete(int id) {
+		lockRow(id);
+		try {
+			recordVersion(id);
+			storage.deleteRow(id);
+			removeRow(id);
+		} finally {
+			unlockRow(id);
+		}
+	}
+
+	// 메모리에 있는 row들을 복사해서 돌려준다.
+	List<T> getRows() {
+		return new ArrayList<>(rows.values());
+	};
+
+	// id 순서로 offset번째부터 limit개
+	List<T> getRows(int offset, int limit) {
+		return getRowsByIds(rows.keySet(), offset, limit);
+	}
+
+	// id가 afterId보다 큰 row limit개 (커서 방식)
+	List<T> getRowsAfter(int afterId, int limit) {
+		return getRowsByIds(rows.tailMap(afterId, false).keySet(), 0, limit);
+	}
+
+	int getRowCount() {
+		return rowCount.get();
+	}
+}
+
+// IdSequence
+// 새 row의 id 발급기
+// 메모리의 AtomicInteger로 발급하고, lastId.txt에는 미리 잡아둔 id 블록의 끝(high-water mark)만 기록한다.
+// 블록의 끝을 파일에 쓴 다음에 그 블록의 id를 내주기 때문에
+// 프로그램이 죽었다 다시 켜져도 기록된 끝 다음부터 발급한다. (빈 번호는 생길 수 있지만 중복은 없다)
+class IdSequence {
+	private static final int BLOCK_SIZE = 100;
+
+	private String filePath;
+	private AtomicInteger lastId;
+	private volatile int highWaterMark;
+
+	// minLastId : 실제로 저장되어 있는 row 중 가장 큰 id
+	IdSequence(String filePath, int minLastId) {
+		this.filePath = filePath;
+
+		int savedMark = 0;
+
+		if (Util.isFileExists(filePath)) {
+			savedMark = Integer.parseInt(Util.getFileContents(filePath).trim());
+		}
+
+		highWaterMark = Math.max(savedMark, minLastId);
+		lastId = new AtomicInteger(highWaterMark);
+	}
+
+	// 여러 쓰레드에서 동시에 불러도 된다.
+	public int next() {
+		int id = lastId.incrementAndGet();
+
+		if (id > highWaterMark) {
+			reserveBlock(id);
+		}
+
+		return id;
+	}
+
+	private synchronized void reserveBlock(int id) {
+		if (id <= highWaterMark) {
+			return;
+		}
+
+		int newMark = Math.max(id, highWaterMark) + BLOCK_SIZE;
+		Util.writeFileContentsAtomically(filePath, newMark + "");
+		highWaterMark = newMark;
+	}
+
+	public int getLastId() {
+		return lastId.get();
+	}
+
+	// 정상 종료할 때는 실제로 쓴 마지막 id만 남겨서 다음 실행 때 빈 번호가 생기지 않게 한다.
+	public synchronized void close() {
+		highWaterMark = lastId.get();
+		Util.writeFileContentsAtomically(filePath, highWaterMark + "");
+	}
+}
+
+// TableStorage
+// Table의 row들을 디스크에 저장하는 방식
+// Table은 row들을 메모리에 들고 있으므로 시작할 때 한번 loadRows 하고 나면 쓰기만 넘겨준다.
+interface TableStorage<T> {
+	// id 순서로 정렬된 row들
+	Map<Integer, T> loadRows();
+
+	void writeRow(int id, T data);
+
+	void deleteRow(int id);
+}
+
+// WriteBehindTableStorage
+// 쓰기/삭제를 바로 디스크에 하지 않고 dirty 버퍼에 모아뒀다가 백그라운드 쓰레드가 한꺼번에 쓴다. (-Dssg.writeBehind=true)
+// 같은 id를 여러번 고치면 마지막 것 하나만 쓴다.
+// 읽기는 Table이 메모리에 들고 있는 row로 하기 때문에 아직 안 쓴 변경사항도 바로 보인다.
+// 버퍼가 MAX_PENDING_ROWS개 이상 쌓이거나, 가장 오래된 변경이 MAX_PENDING_MILLIS 지나거나, flush()를 부르면 쓴다.
+class WriteBehindTableStorage<T> implements TableStorage<T> {
+	private static final int MAX_PENDING_ROWS = 256;
+	private static final long MAX_PENDING_MILLIS = 500;
+	private static final long CHECK_INTERVAL_MILLIS = 100;
+	// 삭제 표시
+	private static final Object DELETED = new Object();
+
+	// 모든 테이블이 같이 쓰는 쓰기 쓰레드
+	private static ScheduledExecutorService writer;
+
+	private Class<T> dataCls;
+	private TableStorage<T> storage;
+	// id -> 쓸 row 또는 DELETED (들어온 순서 유지)
+	private Map<Integer, Object> dirtyRows = new LinkedHashMap<>();
+	private long oldestDirtyMillis;
+	// 버퍼를 떼어내서 쓰는 작업은 한번에 하나씩 (같은 id의 예전 값이 나중에 써지지 않도록)
+	private final Object flushLock = new Object();
+
+	WriteBehindTableStorage(Class<T> dataCls, TableStorage<T> storage) {
+		this.dataCls = dataCls;
+		this.storage = storage;
+
+		getWriter().scheduleWithFixedDelay(() -> {
+			if (isExpired()) {
+				flush();
+			}
+		}, CHECK_INTERVAL_MILLIS, CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	private static synchronized ScheduledExecutorService getWriter() {
+		if (writer == null) {
+			writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "table-write-behind");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+
+		return writer;
+	}
+
+	public Map<Integer, T> loadRows() {
+		return storage.loadRows();
+	}
+
+	public void writeRow(int id, T data) {
+		markDirty(id, data);
+	}
+
+	public void deleteRow(int id) {
+		markDirty(id, DELETED);
+	}
+
+	private void markDirty(int id, Object row) {
+		boolean full;
+
+		synchronized (this) {
+			if (dirtyRows.isEmpty()) {
+				oldestDirtyMillis = System.currentTimeMillis();
+			}
+
+			dirtyRows.put(id, row);
+			full = dirtyRows.size() >= MAX_PENDING_ROWS;
+		}
+
+		if (full) {
+			getWriter().execute(this::flush);
+		}
+	}
+
+	private synchronized boolean isExpired() {
+		return dirtyRows.isEmpty() == false && System.currentTimeMillis() - oldestDirtyMillis >= MAX_PENDING_MILLIS;
+	}
+
+	// 버퍼를 통째로 떼어내고 새 버퍼로 바꾼 다음, 떼어낸 것을 쓴다 (쓰는 동안에도 쓰기는 막히지 않는다)
+	public void flush() {
+		synchronized (flushLock) {
+			Map<Integer, Object> batch;
+
+			synchronized (this) {
+				if (dirtyRows.isEmpty()) {
+					return;
+				}
+
+				batch = dirtyRows;
+				dirtyRows = new LinkedHashMap<>();
+			}
+
+			for (Map.Entry<Integer, Object> entry : batch.entrySet()) {
+				try {
+					if (entry.getValue() == DELETED) {
+						storage.deleteRow(entry.getKey());
+					} else {
+						storage.writeRow(entry.getKey(), dataCls.cast(entry.getValue()));
+					}
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	public synchronized int getPendingCount() {
+		return dirtyRows.size();
+	}
+
+	public TableStorage<T> getStorage() {
+		return storage;
+	}
+}
+
+// row 하나당 json 파일 하나
+// 기본은 db/<테이블>/<id>.json, layout.txt 에 sharded 라고 되어 있으면 db/<테이블>/<샤드>/<id>.json
+class FileTableStorage<T> implements TableStorage<T> {
+	private Class<T> dataCls;
+	private String tableDirPath;
+	private boolean sharded;
+
+	FileTableStorage(Class<T> dataCls, String tableDirPath) {
+		this.dataCls = dataCls;
+		this.tableDirPath = tableDirPath;
+
+		String layoutFilePath = getLayoutFilePath();
+		this.sharded = Util.isFileExists(layoutFilePath) && Util.getFileContents(layoutFilePath).trim().equals("sharded");
+	}
+
+	public Map<Integer, T> loadRows() {
+		// 옮기다 만 파일이 있으면 마저 옮긴다
+		if (sharded) {
+			moveFlatFilesToShards();
+		}
+
+		Map<Integer, T> rows = new TreeMap<>();
+
+		for (int id : getRowIds()) {
+			T row = Util.getObjectFromJson(getRowFilePath(id), dataCls);
+
+			if (row != null) {
+				rows.put(id, row);
+			}
+		}
+
+		return rows;
+	}
+
+	public void writeRow(int id, T data) {
+		String rowFilePath = getRowFilePath(id);
+
+		if (sharded) {
+			Util.makeDir(new File(rowFilePath).getParent());
+		}
+
+		// 임시 파일에 쓰고 바꿔치기 (읽는 쪽에서 반만 쓴 파일을 보지 않도록)
+		Util.writeFileContentsAtomically(rowFilePath, Util.toJsonBytes(data));
+	}
+
+	public void deleteRow(int id) {
+		Util.deleteFileContents(getRowFilePath(id));
+	}
+
+	public boolean isSharded() {
+		return sharded;
+	}
+
+	// 마이그레이션 : 폴더 한곳에 있던 row 파일들을 하위 폴더로 옮긴다. 옮긴 파일 수를 돌려준다.
+	// layout.txt 를 먼저 써두기 때문에 중간에 멈춰도 다음에 시작할 때 나머지를 옮긴다.
+	public int migrateToShards() {
+		if (sharded == false) {
+			Util.writeFileContents(getLayoutFilePath(), "sharded");
+			sharded = true;
+		}
+
+		return moveFlatFilesToShards();
+	}
+
+	private int moveFlatFilesToShards() {
+		int movedCount = 0;
+
+		for (int id : getFlatRowIds()) {
+			Path shardPath = Paths.get(getRowFilePath(id));
+
+			try {
+				Files.createDirectories(shardPath.getParent());
+				Files.move(Paths.get(tableDirPath, id + ".json"), shardPath, StandardCopyOption.REPLACE_EXISTING);
+				movedCount++;
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		return movedCount;
+	}
+
+	List<Integer> getRowIds() {
+		if (sharded == false) {
+			return getFlatRowIds();
+		}
+
+		List<Integer> ids = new ArrayList<>();
+
+		try (java.util.stream.Stream<Path> paths = Files.walk(Paths.get(tableDirPath), 3)) {
+			paths.forEach(path -> {
+				String fileName = path.getFileName().toString();
+
+				if (path.getNameCount() - Paths.get(tableDirPath).getNameCount() == 3 && isRowFileName(fileName)) {
+					ids.add(Integer.parseInt(fileName.substring(0, fileName.length() - 5)));
+				}
+			});
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		Collections.sort(ids);
+
+		return ids;
+	}
+
+	// 폴더 바로 아래의 <id>.json 파일들의 id
+	private List<Integer> getFlatRowIds() {
+		List<Integer> ids = new ArrayList<>();
+		String[] fileNames = new File(tableDirPath).list();
+
+		if (fileNames == null) {
+			return ids;
+		}
+
+		for (String fileName : fileNames) {
+			if (isRowFileName(fileName)) {
+				ids.add(Integer.parseInt(fileName.substring(0, fileName.length() - 5)));
+			}
+		}
+
+		Collections.sort(ids);
+
+		return ids;
+	}
+
+	private static boolean isRowFileName(String fileName) {
+		return fileName.matches("[0-9]+\\.json");
+	}
+
+	private String getRowFilePath(int id) {
+		if (sharded) {
+			return ShardLayout.getPath(tableDirPath, id, ".json");
+		}
+
+		return tableDirPath + "/" + id + ".json";
+	}
+
+	private String getLayoutFilePath() {
+		return tableDirPath + "/layout.txt";
+	}
+}
+
+// 테이블 하나당 추가전용 로그 파일 하나 (db/<테이블>/rows.log)
+// 레코드 : [길이 int][종류 byte][id int][json]
+// 길이는 자기 자신(4바이트)을 뺀 나머지 길이, 삭제는 json 없는 삭제표시(tombstone) 레코드로 남긴다.
+// 살아있는 레코드의 위치는 메모리의 offset 인덱스로 들고 있고,
+// 죽은 레코드가 많아지면 백그라운드에서 살아있는 레코드만 새 파일로 옮겨 적는다(압축).
+class LogTableStorage<T> implements TableStorage<T> {
+	private static final byte PUT = 1;
+	private static final byte DELETE = 2;
+	private static final int HEADER_SIZE = 4 + 1 + 4;
+	// 파일이 이 크기 이상이고 죽은 레코드가 절반 이상이면 압축
+	private static final long COMPACT_MIN_BYTES = 1024 * 1024;
+	private static final double COMPACT_GARBAGE_RATIO = 0.5;
+	private static ScheduledExecutorService compactor;
+
+	private Class<T> dataCls;
+	private String tableDirPath;
+	private Path logFilePath;
+	private FileChannel channel;
+	// id -> 살아있는 레코드 위치
+	private Map<Integer, RecordPos> positions;
+	// 파일 끝 위치
+	private long totalBytes;
+	// 살아있는 레코드들의 크기 합
+	private long liveBytes;
+
+	private static class RecordPos {
+		long offset;
+		int size;
+
+		RecordPos(long offset, int size) {
+			this.offset = offset;
+			this.size = size;
+		}
+	}
+
+	LogTableStorage(Class<T> dataCls, String tableDirPath) {
+		this.dataCls = dataCls;
+		this.tableDirPath = tableDirPath;
+		this.logFilePath = Paths.get(tableDirPath, "rows.log");
+		this.positions = new TreeMap<>();
+
+		if (Files.exists(logFilePath) == false) {
+			migrateFromJsonFiles();
+		}
+
+		openChannel();
+		startCompactor();
+	}
+
+	private void openChannel() {
+		try {
+			channel = FileChannel.open(logFilePath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+			totalBytes = channel.size();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void startCompactor() {
+		synchronized (LogTableStorage.class) {
+			if (compactor == null) {
+				compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+					Thread thread = new Thread(r, "log-compactor");
+					thread.setDaemon(true);
+					return thread;
+				});
+			}
+		}
+
+		compactor.scheduleWithFixedDelay(this::compactIfNeeded, 30, 30, TimeUnit.SECONDS);
+	}
+
+	// 한번만 : 기존 db/<테이블>/<id>.json 파일들을 로그 파일 하나로 옮긴다.
+	// 임시 파일에 다 쓰고 나서 이름을 바꾸기 때문에 중간에 죽어도 json 파일은 그대로 남는다.
+	private void migrateFromJsonFiles() {
+		FileTableStorage<T> fileStorage = new FileTableStorage<>(dataCls, tableDirPath);
+		Map<Integer, T> rows = fileStorage.loadRows();
+
+		if (rows.isEmpty()) {
+			return;
+		}
+
+		Path tmpPath = Paths.get(tableDirPath, "rows.log.migrating");
+
+		try (FileChannel out = FileChannel.open(tmpPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			for (Map.Entry<Integer, T> entry : rows.entrySet()) {
+				writeFully(out, toRecord(PUT, entry.getKey(), Util.toJsonBytes(entry.getValue())));
+			}
+			out.force(true);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+
+		try {
+			Files.move(tmpPath, logFilePath, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+
+		for (int id : rows.keySet()) {
+			fileStorage.deleteRow(id);
+		}
+	}
+
+	public synchronized Map<Integer, T> loadRows() {
+		Map<Integer, T> rows = new TreeMap<>();
+		positions.clear();
+		liveBytes = 0;
+
+		long pos = 0;
+
+		try {
+			long fileSize = channel.size();
+
+			try (DataInputStream in = new DataInputStream(
+					new BufferedInputStream(Files.newInputStream(logFilePath)))) {
+				while (pos + 4 <= fileSize) {
+					int length = in.readInt();
+
+					// 마지막에 덜 쓰인 레코드는 버린다
+					if (length < HEADER_SIZE - 4 || pos + 4 + length > fileSize) {
+						break;
+					}
+
+					byte type = in.readByte();
+					int id = in.readInt();
+					byte[] json = new byte[length - (HEADER_SIZE - 4)];
+					in.readFully(json);
+
+					unsetPos(id);
+
+					// 읽을 수 없는 레코드는 없는 row로 친다 (압축할 때 버려진다)
+					T row = type == PUT ? Util.getObjectFromJson(json, dataCls) : null;
+
+					if (row != null) {
+						rows.put(id, row);
+						setPos(id, pos, 4 + length);
+					} else {
+						rows.remove(id);
+					}
+
+					pos += 4 + length;
+				}
+			}
+
+			if (pos < fileSize) {
+				channel.truncate(pos);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		totalBytes = pos;
+
+		return rows;
+	}
+
+	public synchronized void writeRow(int id, T data) {
+		append(PUT, id, Util.toJsonBytes(data));
+	}
+
+	public synchronized void deleteRow(int id) {
+		if (positions.containsKey(id)) {
+			append(DELETE, id, new byte[0]);
+		}
+	}
+
+	private void append(byte type, int id, byte[] json) {
+		ByteBuffer record = toRecord(type, id, json);
+		int size = record.remaining();
+
+		try {
+			long offset = totalBytes;
+
+			while (record.hasRemaining()) {
+				offset += channel.write(record, offset);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+
+		unsetPos(id);
+
+		if (type == PUT) {
+			setPos(id, totalBytes, size);
+		}
+
+		totalBytes += size;
+	}
+
+	private void setPos(int id, long offset, int size) {
+		positions.put(id, new RecordPos(offset, size));
+		liveBytes += size;
+	}
+
+	private void unsetPos(int id) {
+		RecordPos old = positions.remove(id);
+
+		if (old != null) {
+			liveBytes -= old.size;
+		}
+	}
+
+	private static ByteBuffer toRecord(byte type, int id, byte[] json) {
+		ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + json.length);
+		record.putInt(HEADER_SIZE - 4 + json.length);
+		record.put(type);
+		record.putInt(id);
+		record.put(json);
+		record.flip();
+
+		return record;
+	}
+
+	private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			out.write(buffer);
+		}
+	}
+
+	private synchronized void compactIfNeeded() {
+		if (totalBytes < COMPACT_MIN_BYTES) {
+			return;
+		}
+
+		if (totalBytes - liveBytes < totalBytes * COMPACT_GARBAGE_RATIO) {
+			return;
+		}
+
+		compact();
+	}
+
+	// 살아있는 레코드만 id 순서로 새 파일에 복사하고 원래 파일과 바꿔치기 한다.
+	synchronized void compact() {
+		Path tmpPath = Paths.get(tableDirPath, "rows.log.compact");
+		Map<Integer, RecordPos> newPositions = new TreeMap<>();
+		long newPos = 0;
+
+		try (FileChannel out = FileChannel.open(tmpPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			for (Map.Entry<Integer, RecordPos> entry : positions.entrySet()) {
+				RecordPos recordPos = entry.getValue();
+				long copied = 0;
+
+				while (copied < recordPos.size) {
+					copied += channel.transferTo(recordPos.offset + copied, recordPos.size - copied, out);
+				}
+
+				newPositions.put(entry.getKey(), new RecordPos(newPos, recordPos.size));
+				newPos += recordPos.size;
+			}
+
+			out.force(true);
+			channel.close();
+			Files.move(tmpPath, logFilePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		if (channel.isOpen() == false) {
+			openChannel();
+		}
+
+		if (newPositions.size() == positions.size() && Util.isFileExists(tmpPath.toString()) == false) {
+			positions = newPositions;
+			totalBytes = newPos;
+			liveBytes = newPos;
+		}
+	}
+}
+
+// SearchIndex
+// 게시물 제목/내용 역색인 (단어 -> 게시물 id 목록)
+// 단어는 ArticleAnalyzer로 나누고(한글은 두 글자씩), 단어별 게시물 목록은 PostingList에 압축해서 들고 있는다.
+// 게시물을 쓰고, 고치고, 지울 때마다 그 게시물의 단어들만 고친다.
+// 종료할 때 db/search/index.dat 에 저장하고,
+// 시작할 때 읽은 뒤 게시물 테이블과 내용 해시가 다른 게시물만 다시 색인한다.
+class SearchIndex {
+	private static final int FILE_VERSION = 3;
+	// 제목에 있는 단어는 내용보다 점수를 더 준다
+	private static final int TITLE_WEIGHT = 3;
+
+	private String filePath;
+	// 단어 -> 게시물 id 목록
+	private Map<String, PostingList> postings;
+	// 게시물 id -> 색인된 내용 (지울 때 어떤 단어 목록에서 빼야 하는지)
+	private Map<Integer, Doc> docs;
+	private boolean dirty;
+
+	private static class Doc {
+		long hash;
+		String[] terms;
+
+		Doc(long hash, String[] terms) {
+			this.hash = hash;
+			this.terms = terms;
+		}
+	}
+
+	SearchIndex(String dirPath) {
+		Util.makeDir(dirPath);
+		this.filePath = dirPath + "/index.dat";
+		this.postings = new HashMap<>();
+		this.docs = new HashMap<>();
+
+		load();
+	}
+
+	// 저장된 색인을 게시물 테이블에 맞춘다
+	public synchronized void sync(List<Article> articles) {
+		Set<Integer> ids = new TreeSet<>();
+
+		for (Article article : articles) {
+			ids.add(article.getId());
+			Doc doc = docs.get(article.getId());
+
+			if (doc == null || doc.hash != getContentHash(article)) {
+				addArticle(article);
+			}
+		}
+
+		for (int id : new ArrayList<>(docs.keySet())) {
+			if (ids.contains(id) == false) {
+				removeArticle(id);
+			}
+		}
+	}
+
+	public synchronized void addArticle(Article article) {
+		removeArticle(article.getId());
+
+		Map<String, Integer> termFreqs = new HashMap<>();
+
+		for (String term : ArticleAnalyzer.analyze(article.getTitle())) {
+			termFreqs.merge(term, TITLE_WEIGHT, Integer::sum);
+		}
+
+		for (String term : ArticleAnalyzer.analyze(article.getBody())) {
+			termFreqs.merge(term, 1, Integer::sum);
+		}
+
+		for (Map.Entry<String, Integer> entry : termFreqs.entrySet()) {
+			postings.computeIfAbsent(entry.getKey(), k -> new PostingList()).add(article.getId(), entry.getValue());
+		}
+
+		docs.put(article.getId(), new Doc(getContentHash(article), termFreqs.keySet().toArray(new String[0])));
+		dirty = true;
+	}
+
+	public synchronized void removeArticle(int id) {
+		Doc doc = docs.remove(id);
+
+		if (doc == null) {
+			return;
+		}
+
+		for (String term : doc.terms) {
+			PostingList postingList = postings.get(term);
+
+			if (postingList != null) {
+				postingList.remove(id);
+
+				if (postingList.size() == 0) {
+					postings.remove(term);
+				}
+			}
+		}
+
+		dirty = true;
+	}
+
+	// 검색어의 단어가 모두 들어있는 게시물을 tf-idf 점수 순(같으면 최신 순)으로
+	// 단어별 목록을 int 배열로 풀어서 가장 짧은 목록부터 차례로 교집합을 구한다.
+	public synchronized SearchResult search(String keyword, int offset, int limit) {
+		if (offset < 0) {
+			offset = 0;
+		}
+
+		Set<String> terms = new TreeSet<>(ArticleAnalyzer.analyze(keyword));
+		List<PostingList> lists = new ArrayList<>();
+
+		for (String term : terms) {
+			PostingList postingList = postings.get(term);
+
+			if (postingList == null) {
+				return new SearchResult(0, new ArrayList<>());
+			}
+
+			lists.add(postingList);
+		}
+
+		if (lists.isEmpty()) {
+			return new SearchResult(0, new ArrayList<>());
+		}
+
+		lists.sort((a, b) -> a.size() - b.size());
+
+		int[] ids = new int[lists.get(0).size()];
+		int[] tfs = new int[ids.length];
+		lists.get(0).decode(ids, tfs);
+
+		double[] scores = new double[ids.length];
+		int count = ids.length;
+		addScores(scores, tfs, count, getIdf(lists.get(0)));
+
+		for (int i = 1; i < lists.size() && count > 0; i++) {
+			PostingList postingList = lists.get(i);
+			int[] otherIds = new int[postingList.size()];
+			int[] otherTfs = new int[otherIds.length];
+			postingList.decode(otherIds, otherTfs);
+			double idf = getIdf(postingList);
+
+			// 정렬된 두 배열의 교집합, 결과는 앞쪽에 당겨서 채운다
+			int kept = 0;
+			int j = 0;
+
+			for (int k = 0; k < count; k++) {
+				while (j < otherIds.length && otherIds[j] < ids[k]) {
+					j++;
+				}
+
+				if (j < otherIds.length && otherIds[j] == ids[k]) {
+					ids[kept] = ids[k];
+					scores[kept] = scores[k] + otherTfs[j] * idf;
+					kept++;
+				}
+			}
+
+			count = kept;
+		}
+
+		// 점수(float 비트) 상위 32비트 + id 하위 32비트로 묶어서 한번에 정렬
+		long[] keys = new long[count];
+
+		for (int k = 0; k < count; k++) {
+			keys[k] = ((long) Float.floatToIntBits((float) scores[k]) << 32) | ids[k];
+		}
+
+		Arrays.sort(keys);
+
+		List<Integer> pageIds = new ArrayList<>();
+
+		for (int k = count - 1 - offset; k >= 0 && pageIds.size() < limit; k--) {
+			pageIds.add((int) keys[k]);
+		}
+
+		return new SearchResult(count, pageIds);
+	}
+
+	private double getIdf(PostingList postingList) {
+		return Math.log(1 + (double) docs.size() / postingList.size());
+	}
+
+	private static void addScores(double[] scores, int[] tfs, int count, double idf) {
+		for (int k = 0; k < count; k++) {
+			scores[k] += tfs[k] * idf;
+		}
+	}
+
+	private static long getContentHash(Article article) {
+		return Util.hash64(Util.hash64(article.getTitle() + ""), article.getBody() + "");
+	}
+
+	// 파일 : 버전, 단어 수, [단어, 게시물 수, 블록 수, [블록 게시물 수, 마지막 id, 바이트 수, 바이트들]], 게시물 수, [id, 해시, 단어 수, 단어 번호들]
+	private void load() {
+		if (Util.isFileExists(filePath) == false) {
+			return;
+		}
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(Paths.get(filePath))))) {
+			// 예전 형식이면 처음부터 다시 색인한다
+			if (in.readInt() != FILE_VERSION) {
+				return;
+			}
+
+			int termCount = in.readInt();
+			String[] terms = new String[termCount];
+
+			for (int i = 0; i < termCount; i++) {
+				terms[i] = in.readUTF();
+				postings.put(terms[i], PostingList.read(in));
+			}
+
+			int docCount = in.readInt();
+
+			for (int i = 0; i < docCount; i++) {
+				int id = in.readInt();
+				long hash = in.readLong();
+				String[] docTerms = new String[in.readInt()];
+
+				for (int j = 0; j < docTerms.length; j++) {
+					docTerms[j] = terms[in.readInt()];
+				}
+
+				docs.put(id, new Doc(hash, docTerms));
+			}
+		} catch (IOException e) {
+			// 깨진 파일이면 처음부터 다시 색인한다
+			postings.clear();
+			docs.clear();
+		}
+	}
+
+	// 바뀐 게 있을 때만 저장
+	public synchronized void save() {
+		if (dirty == false) {
+			return;
+		}
+
+		Path tmpPath = Paths.get(filePath + ".tmp");
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpPath)))) {
+			out.writeInt(FILE_VERSION);
+			out.writeInt(postings.size());
+
+			Map<String, Integer> termNos = new HashMap<>();
+
+			for (Map.Entry<String, PostingList> entry : postings.entrySet()) {
+				termNos.put(entry.getKey(), termNos.size());
+				out.writeUTF(entry.getKey());
+				entry.getValue().write(out);
+			}
+
+			out.writeInt(docs.size());
+
+			for (Map.Entry<Integer, Doc> entry : docs.entrySet()) {
+				out.writeInt(entry.getKey());
+				out.writeLong(entry.getValue().hash);
+				out.writeInt(entry.getValue().terms.length);
+
+				for (String term : entry.getValue().terms) {
+					out.writeInt(termNos.get(term));
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+
+		try {
+			Files.move(tmpPath, Paths.get(filePath), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			dirty = false;
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
+
+// ArticleAnalyzer
+// 검색용으로 글을 단어들로 나눈다.
+// 한글은 띄어쓰기만으로는 조사 때문에 잘 안 맞으므로 이어진 한글을 두 글자씩 겹쳐 자른다. (자유게시판 -> 자유, 유게, 게시, 시판)
+// 한 글자짜리 한글은 그 글자 하나, 영어/숫자는 소문자로 바꾼 단어 하나로 만든다.
+class ArticleAnalyzer {
+	public static List<String> analyze(String text) {
+		List<String> terms = new ArrayList<>();
+
+		if (text == null) {
+			return terms;
+		}
+
+		int i = 0;
+
+		while (i < text.length()) {
+			char c = text.charAt(i);
+
+			if (isHangul(c)) {
+				int end = i;
+
+				while (end < text.length() && isHangul(text.charAt(end))) {
+					end++;
+				}
+
+				if (end - i == 1) {
+					terms.add(String.valueOf(c));
+				}
+
+				for (int j = i; j + 1 < end; j++) {
+					terms.add(text.substring(j, j + 2));
+				}
+
+				i = end;
+			} else if (Character.isLetterOrDigit(c)) {
+				int end = i;
+
+				while (end < text.length() && Character.isLetterOrDigit(text.charAt(end))
+						&& isHangul(text.charAt(end)) == false) {
+					end++;
+				}
+
+				terms.add(text.substring(i, end).toLowerCase());
+				i = end;
+			} else {
+				i++;
+			}
+		}
+
+		return terms;
+	}
+
+	private static boolean isHangul(char c) {
+		return Character.UnicodeScript.of(c) == Character.UnicodeScript.HANGUL;
+	}
+}
+
+// PostingList
+// 단어 하나가 들어있는 게시물 id 목록 (id 오름차순)
+// BLOCK_SIZE개씩 블록으로 나누고, 블록마다 [id 차이, 빈도]를 가변 길이 바이트(7비트씩, 이어지면 최상위 비트 1)로 이어붙여 byte 배열 하나에 담는다.
+// 블록마다 마지막 id를 들고 있어서, 중간에 넣거나 뺄 때는 해당 블록 하나만 풀었다가 다시 담는다.
+// 새 게시물은 id가 가장 크므로 보통은 마지막 블록 뒤에 붙이기만 한다.
+class PostingList {
+	// 블록 하나에 담는 최대 게시물 수
+	private static final int BLOCK_SIZE = 128;
+
+	private List<Block> blocks;
+	private int count;
+
+	private static class Block {
+		byte[] data;
+		int length;
+		int count;
+		int lastId;
+
+		Block() {
+			data = new byte[8];
+		}
+
+		// 블록의 첫 id는 0에서부터의 차이로 담는다
+		void append(int id, int tf) {
+			if (length + 10 > data.length) {
+				data = Arrays.copyOf(data, Math.max(data.length * 2, length + 10));
+			}
+
+			writeVarInt(id - lastId);
+			writeVarInt(tf);
+			lastId = id;
+			count++;
+		}
+
+		void encode(int[] ids, int[] tfs, int from, int to) {
+			length = 0;
+			count = 0;
+			lastId = 0;
+
+			for (int i = from; i < to; i++) {
+				append(ids[i], tfs[i]);
+			}
+		}
+
+		// ids, tfs 배열의 offset 부터 풀어 담고, 다음 offset을 돌려준다
+		int decode(int[] ids, int[] tfs, int offset) {
+			int pos = 0;
+			int id = 0;
+
+			for (int i = 0; i < count; i++) {
+				int value = 0;
+				int shift = 0;
+				byte b;
+
+				do {
+					b = data[pos++];
+					value |= (b & 0x7f) << shift;
+					shift += 7;
+				} while (b < 0);
+
+				id += value;
+				ids[offset + i] = id;
+
+				value = 0;
+				shift = 0;
+
+				do {
+					b = data[pos++];
+					value |= (b & 0x7f) << shift;
+					shift += 7;
+				} while (b < 0);
+
+				tfs[offset + i] = value;
+			}
+
+			return offset + count;
+		}
+
+		private void writeVarInt(int value) {
+			while ((value & ~0x7f) != 0) {
+				data[length++] = (byte) ((value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+
+			data[length++] = (byte) value;
+		}
+	}
+
+	PostingList() {
+		blocks = new ArrayList<>();
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public void add(int id, int tf) {
+		Block last = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+
+		if (last == null || id > last.lastId) {
+			if (last == null || last.count >= BLOCK_SIZE) {
+				last = new Block();
+				blocks.add(last);
+			}
+
+			last.append(id, tf);
+			count++;
+			return;
+		}
+
+		int index = findBlock(id);
+		Block block = blocks.get(index);
+		int[] ids = new int[block.count + 1];
+		int[] tfs = new int[block.count + 1];
+		block.decode(ids, tfs, 0);
+
+		int pos = Arrays.binarySearch(ids, 0, block.count, id);
+
+		if (pos >= 0) {
+			tfs[pos] = tf;
+			block.encode(ids, tfs, 0, block.count);
+			return;
+		}
+
+		pos = -pos - 1;
+		int newCount = block.count + 1;
+		System.arraycopy(ids, pos, ids, pos + 1, block.count - pos);
+		System.arraycopy(tfs, pos, tfs, pos + 1, block.count - pos);
+		ids[pos] = id;
+		tfs[pos] = tf;
+		count++;
+
+		// 블록이 넘치면 반으로 나눈다
+		if (newCount > BLOCK_SIZE) {
+			Block right = new Block();
+			block.encode(ids, tfs, 0, newCount / 2);
+			right.encode(ids, tfs, newCount / 2, newCount);
+			blocks.add(index + 1, right);
+		} else {
+			block.encode(ids, tfs, 0, newCount);
+		}
+	}
+
+	public void remove(int id) {
+		if (blocks.isEmpty() || id > blocks.get(blocks.size() - 1).lastId) {
+			return;
+		}
+
+		int index = findBlock(id);
+		Block block = blocks.get(index);
+		int[] ids = new int[block.count];
+		int[] tfs = new int[block.count];
+		block.decode(ids, tfs, 0);
+
+		int pos = Arrays.binarySearch(ids, id);
+
+		if (pos < 0) {
+			return;
+		}
+
+		count--;
+
+		if (block.count == 1) {
+			blocks.remove(index);
+			return;
+		}
+
+		System.arraycopy(ids, pos + 1, ids, pos, block.count - pos - 1);
+		System.arraycopy(tfs, pos + 1, tfs, pos, block.count - pos - 1);
+		block.encode(ids, tfs, 0, block.count - 1);
+	}
+
+	// id가 들어있을 수 있는 블록 (마지막 id가 id 이상인 첫 블록)
+	private int findBlock(int id) {
+		int low = 0;
+		int high = blocks.size() - 1;
+
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+
+			if (blocks.get(mid).lastId < id) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+
+		return low;
+	}
+
+	// ids, tfs 배열(크기 size() 이상)에 풀어 담는다
+	public void decode(int[] ids, int[] tfs) {
+		int offset = 0;
+
+		for (Block block : blocks) {
+			offset = block.decode(ids, tfs, offset);
+		}
+	}
+
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(count);
+		out.writeInt(blocks.size());
+
+		for (Block block : blocks) {
+			out.writeInt(block.count);
+			out.writeInt(block.lastId);
+			out.writeInt(block.length);
+			out.write(block.data, 0, block.length);
+		}
+	}
+
+	public static PostingList read(DataInputStream in) throws IOException {
+		PostingList postingList = new PostingList();
+		postingList.count = in.readInt();
+		int blockCount = in.readInt();
+
+		for (int i = 0; i < blockCount; i++) {
+			Block block = new Block();
+			block.count = in.readInt();
+			block.lastId = in.readInt();
+			block.length = in.readInt();
+			block.data = new byte[Math.max(8, block.length)];
+			in.readFully(block.data, 0, block.length);
+			postingList.blocks.add(block);
+		}
+
+		return postingList;
+	}
+}
+
+// SearchResult
+// 검색 결과 한 페이지 (전체 개수 + 이번 페이지의 게시물)
+class SearchResult {
+	private int totalCount;
+	private List<Integer> ids;
+	private List<Article> articles;
+
+	SearchResult(int totalCount, List<Integer> ids) {
+		this.totalCount = totalCount;
+		this.ids = ids;
+		this.articles = new ArrayList<>();
+	}
+
+	public int getTotalCount() {
+		return totalCount;
+	}
+
+	public List<Integer> getIds() {
+		return ids;
+	}
+
+	public List<Article> getArticles() {
+		return articles;
+	}
+}
+
+// QueryCache
+// 조회 결과 캐시 (최대 maxSize개, 가장 오래 안 쓴 것부터 버린다)
+// 결과마다 태그를 달아두고, 데이터가 바뀌면 해당 태그가 달린 결과만 지운다.
+// 결과 타입(V)마다 캐시를 따로 둔다. 목록은 여러 곳에서 같이 쓰므로 freezer로 바꿀 수 없게 만들어서 담는다.
+class QueryCache<V> {
+	private int maxSize;
+	// 담기 전에 결과에 적용한다 (예 : Collections::unmodifiableList)
+	private Function<V, V> freezer;
+	// key -> 결과 (접근 순서)
+	private LinkedHashMap<String, V> entries;
+	// 태그 -> key들
+	private Map<String, Set<String>> keysByTag = new HashMap<>();
+	// key -> 태그들
+	private Map<String, String[]> tagsByKey = new HashMap<>();
+	// invalidate 할 때마다 올라간다. 읽는 도중에 지워졌으면 그 결과는 담지 않는다.
+	private long version;
+	private AtomicLong hitCount = new AtomicLong();
+	private AtomicLong missCount = new AtomicLong();
+
+	QueryCache(int maxSize, Function<V, V> freezer) {
+		this.maxSize = maxSize;
+		this.freezer = freezer;
+		this.entries = new LinkedHashMap<String, V>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+				if (size() > QueryCache.this.maxSize) {
+					removeTags(eldest.getKey());
+					return true;
+				}
+
+				return false;
+			}
+		};
+	}
+
+	// 캐시에 있으면 그대로, 없으면 loader로 읽어서 담는다
+	public V get(String key, Supplier<V> loader, String... tags) {
+		long loadVersion;
+
+		synchronized (this) {
+			V value = entries.get(key);
+
+			if (value != null) {
+				hitCount.incrementAndGet();
+				return value;
+			}
+
+			loadVersion = version;
+		}
+
+		missCount.incrementAndGet();
+		V value = loader.get();
+
+		if (value != null) {
+			value = freezer.apply(value);
+		}
+
+		synchronized (this) {
+			if (version == loadVersion && value != null) {
+				entries.put(key, value);
+				tagsByKey.put(key, tags);
+
+				for (String tag : tags) {
+					keysByTag.computeIfAbsent(tag, t -> new HashSet<>()).add(key);
+				}
+			}
+		}
+
+		return value;
+	}
+
+	public synchronized void invalidate(String tag) {
+		version++;
+
+		Set<String> keys = keysByTag.remove(tag);
+
+		if (keys == null) {
+			return;
+		}
+
+		for (String key : keys) {
+			entries.remove(key);
+			removeTags(key);
+		}
+	}
+
+	private void removeTags(String key) {
+		String[] tags = tagsByKey.remove(key);
+
+		if (tags == null) {
+			return;
+		}
+
+		for (String tag : tags) {
+			Set<String> keys = keysByTag.get(tag);
+
+			if (keys != null) {
+				keys.remove(key);
+
+				if (keys.isEmpty()) {
+					keysByTag.remove(tag);
+				}
+			}
+		}
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+}
+
+// DevPage
+// build serve 에서 그린 페이지 하나 (본문, ETag, 그린 시각, 태그)
+// 조회수/추천수는 바뀌어도 알림이 없으므로 그릴 때 읽은 값을 기억해두고 캐시에서 꺼낼 때 지금 값과 비교한다.
+class DevPage {
+	private String contentType;
+	private byte[] body;
+	private String etag;
+	private long lastModified;
+	// 이 페이지를 그리는 데 쓰인 데이터 ("article:1", "member:2" ...)
+	private Set<String> tags = new HashSet<>();
+	private int[] countedArticleIds = new int[0];
+	private long[] hitCounts = new long[0];
+	private long[] likeCounts = new long[0];
+
+	DevPage(String contentType) {
+		this.contentType = contentType;
+	}
+
+	public void addTag(String tag) {
+		tags.add(tag);
+	}
+
+	public Set<String> getTags() {
+		return tags;
+	}
+
+	public void setCounts(int[] articleIds, long[] hitCounts, long[] likeCounts) {
+		this.countedArticleIds = articleIds;
+		this.hitCounts = hitCounts;
+		this.likeCounts = likeCounts;
+	}
+
+	// 그린 뒤로 조회수/추천수가 바뀌었는지
+	public boolean isCountsChanged(ArticleService articleService) {
+		for (int i = 0; i < countedArticleIds.length; i++) {
+			if (articleService.getHitCount(countedArticleIds[i]) != hitCounts[i]
+					|| articleService.getLikeCount(countedArticleIds[i]) != likeCounts[i]) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	// ETag 는 본문 해시, Last-Modified 는 그린 시각 (HTTP 날짜는 초 단위)
+	public void setContents(String contents) {
+		body = contents.getBytes(StandardCharsets.UTF_8);
+		etag = "\"" + Long.toHexString(Util.hash64(body)) + "\"";
+		lastModified = System.currentTimeMillis() / 1000 * 1000;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	public byte[] getBody() {
+		return body;
+	}
+
+	public String getEtag() {
+		return etag;
+	}
+
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	public int getSize() {
+		return body.length;
+	}
+}
+
+// PageCache
+// build serve 에서 그린 페이지를 경로별로 담아둔다. 전체 크기가 maxBytes를 넘으면 오래 안 쓴 것부터 뺀다.
+// 태그가 달린 데이터가 바뀌면 그 태그가 달린 페이지만 지우고, 템플릿이 바뀌면 전부 지운다.
+// QueryCache 처럼 invalidate 할 때마다 version이 올라가서, 그리는 도중에 지워졌으면 그 결과는 담지 않는다.
+class PageCache {
+	private long maxBytes;
+	private long totalBytes;
+	// 경로 -> 페이지 (접근 순서)
+	private LinkedHashMap<String, DevPage> pages = new LinkedHashMap<>(16, 0.75f, true);
+	// 태그 -> 경로들
+	private Map<String, Set<String>> pathsByTag = new HashMap<>();
+	private long version;
+	// 지금 담긴 페이지들을 그린 템플릿
+	private long sourceHash;
+	private AtomicLong hitCount = new AtomicLong();
+	private AtomicLong missCount = new AtomicLong();
+
+	PageCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	// 없거나 조회수/추천수가 바뀌었으면 null
+	public DevPage get(String path, ArticleService articleService) {
+		DevPage page;
+
+		synchronized (this) {
+			page = pages.get(path);
+		}
+
+		if (page == null || page.isCountsChanged(articleService)) {
+			missCount.incrementAndGet();
+			return null;
+		}
+
+		hitCount.incrementAndGet();
+
+		return page;
+	}
+
+	public synchronized long getVersion() {
+		return version;
+	}
+
+	public synchronized void put(String path, DevPage page, long loadVersion) {
+		if (version != loadVersion || page.getSize() > maxBytes) {
+			return;
+		}
+
+		remove(path);
+		pages.put(path, page);
+		totalBytes += page.getSize();
+
+		for (String tag : page.getTags()) {
+			pathsByTag.computeIfAbsent(tag, t -> new HashSet<>()).add(path);
+		}
+
+		// 넘치면 오래 안 쓴 것부터
+		while (totalBytes > maxBytes) {
+			remove(pages.keySet().iterator().next());
+		}
+	}
+
+	public synchronized void invalidate(String tag) {
+		version++;
+
+		Set<String> paths = pathsByTag.remove(tag);
+
+		if (paths == null) {
+			return;
+		}
+
+		for (String path : paths) {
+			remove(path);
+		}
+	}
+
+	public synchronized void clear() {
+		version++;
+		pages.clear();
+		pathsByTag.clear();
+		totalBytes = 0;
+	}
+
+	// 템플릿이 바뀌었으면 전부 지운다
+	public synchronized void checkSourceHash(long sourceHash) {
+		if (this.sourceHash != sourceHash) {
+			clear();
+			this.sourceHash = sourceHash;
+		}
+	}
+
+	private void remove(String path) {
+		DevPage page = pages.remove(path);
+
+		if (page == null) {
+			return;
+		}
+
+		totalBytes -= page.getSize();
+
+		for (String tag : page.getTags()) {
+			Set<String> paths = pathsByTag.get(tag);
+
+			if (paths != null) {
+				paths.remove(path);
+
+				if (paths.isEmpty()) {
+					pathsByTag.remove(tag);
+				}
+			}
+		}
+	}
+
+	public synchronized int size() {
+		return pages.size();
+	}
+
+	public synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+}
+
+// ArticleView
+// 게시물 + 작성자 + 게시판 (화면/페이지에 보여줄 때 한번에 묶어서 쓴다)
+class ArticleView {
+	private Article article;
+	private Member writer;
+	private Board board;
+
+	ArticleView(Article article, Member writer, Board board) {
+		this.article = article;
+		this.writer = writer;
+		this.board = board;
+	}
+
+	public Article getArticle() {
+		return article;
+	}
+
+	public Member getWriter() {
+		return writer;
+	}
+
+	public Board getBoard() {
+		return board;
+	}
+
+	public String getWriterName() {
+		return writer == null ? "" : writer.getName();
+	}
+
+	public String getBoardCode() {
+		return board == null ? "" : board.getCode();
+	}
+
+	@Override
+	public String toString() {
+		return article.toString() + " (작성자 : " + getWriterName() + ", 게시판 : " + getBoardCode() + ")";
+	}
+}
+
+// ArticleCounters
+// 게시물 조회수/추천수
+// 게시물 row와 따로 메모리의 LongAdder로 센다. (여러 쓰레드가 동시에 올려도 서로 기다리지 않는다)
+// 디스크에는 FLUSH_INTERVAL_SECONDS마다 바뀐 만큼(delta)만 counts-<세대>.log에 한번에 덧붙이고,
+// 로그가 커지거나 종료할 때 counts.txt로 합친다. 조회/읽기 중에는 파일을 건드리지 않는다.
+// counts.txt : 첫 줄 "g <세대>" (이 세대보다 앞선 로그는 이미 합쳐져 있다), 그 뒤로 "<id> <조회수> <추천수>" 줄들
+// counts-<세대>.log : "<id> <조회수 증가> <추천수 증가>" 또는 삭제 "d <id>" 줄들
+// 합칠 때는 다음 세대 번호를 적은 counts.txt를 먼저 쓰고 나서 예전 로그를 지운다.
+// 그 사이에 멈춰도 남은 예전 로그는 읽지 않으므로 두번 더해지지 않는다.
+class ArticleCounters {
+	private static final long FLUSH_INTERVAL_SECONDS = 5;
+	private static final long MAX_LOG_BYTES = 1024 * 1024;
+
+	private static class Counter {
+		LongAdder hits = new LongAdder();
+		LongAdder likes = new LongAdder();
+		// 디스크에 이미 기록된 값 (flush 쓰레드만 바꾼다)
+		long savedHits;
+		long savedLikes;
+	}
+
+	private String dirPath;
+	private Map<Integer, Counter> counters = new ConcurrentHashMap<>();
+	// 지워진 게시물 (다음 flush 때 로그에 남긴다)
+	private Set<Integer> removedIds = ConcurrentHashMap.newKeySet();
+	private ScheduledExecutorService flusher;
+	// 지금 덧붙이고 있는 로그의 세대
+	private int logGeneration;
+
+	ArticleCounters(String dirPath) {
+		this.dirPath = dirPath;
+
+		Util.makeDir(dirPath);
+		load();
+
+		flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "article-counter-flush");
+			thread.setDaemon(true);
+			return thread;
+		});
+		flusher.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_SECONDS, FLUSH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+	}
+
+	public void increaseHit(int id) {
+		getCounter(id).hits.increment();
+	}
+
+	public void increaseLike(int id) {
+		getCounter(id).likes.increment();
+	}
+
+	public long getHitCount(int id) {
+		Counter counter = counters.get(id);
+		return counter == null ? 0 : counter.hits.sum();
+	}
+
+	public long getLikeCount(int id) {
+		Counter counter = counters.get(id);
+		return counter == null ? 0 : counter.likes.sum();
+	}
+
+	public void remove(int id) {
+		if (counters.remove(id) != null) {
+			removedIds.add(id);
+		}
+	}
+
+	private Counter getCounter(int id) {
+		return counters.computeIfAbsent(id, key -> {
+			removedIds.remove(key);
+			return new Counter();
+		});
+	}
+
+	// 마지막 flush 이후 바뀐 만큼만 로그에 덧붙인다
+	public synchronized void flush() {
+		StringBuilder log = new StringBuilder();
+
+		for (int id : removedIds) {
+			if (counters.containsKey(id) == false) {
+				log.append("d ").append(id).append("\n");
+			}
+			removedIds.remove(id);
+		}
+
+		for (Map.Entry<Integer, Counter> entry : counters.entrySet()) {
+			Counter counter = entry.getValue();
+			long hits = counter.hits.sum();
+			long likes = counter.likes.sum();
+
+			if (hits == counter.savedHits && likes == counter.savedLikes) {
+				continue;
+			}
+
+			log.append(entry.getKey()).append(' ').append(hits - counter.savedHits).append(' ')
+					.append(likes - counter.savedLikes).append("\n");
+			counter.savedHits = hits;
+			counter.savedLikes = likes;
+		}
+
+		if (log.length() == 0) {
+			return;
+		}
+
+		try {
+			Files.write(Paths.get(getLogFilePath(logGeneration)), log.toString().getBytes(), StandardOpenOption.CREATE,
+					StandardOpenOption.APPEND);
+
+			if (Files.size(Paths.get(getLogFilePath(logGeneration))) >= MAX_LOG_BYTES) {
+				compact();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	// 기록된 값들을 counts.txt 하나로 합치고 다음 세대 로그로 넘어간다
+	private void compact() throws IOException {
+		int nextGeneration = logGeneration + 1;
+		StringBuilder counts = new StringBuilder();
+		counts.append("g ").append(nextGeneration).append("\n");
+
+		for (Map.Entry<Integer, Counter> entry : new TreeMap<>(counters).entrySet()) {
+			Counter counter = entry.getValue();
+			counts.append(entry.getKey()).append(' ').append(counter.savedHits).append(' ').append(counter.savedLikes)
+					.append("\n");
+		}
+
+		Util.writeFileContentsAtomically(getCountsFilePath(), counts.toString());
+		logGeneration = nextGeneration;
+		deleteOldLogs();
+	}
+
+	// 이미 counts.txt에 합쳐진 로그들을 지운다
+	private void deleteOldLogs() throws IOException {
+		for (int generation : getLogGenerations()) {
+			if (generation < logGeneration) {
+				Files.deleteIfExists(Paths.get(getLogFilePath(generation)));
+			}
+		}
+
+		// 세대 번호를 쓰기 전의 로그
+		Files.deleteIfExists(Paths.get(getLegacyLogFilePath()));
+	}
+
+	// 종료할 때
+	public synchronized void close() {
+		flusher.shutdown();
+		flush();
+
+		try {
+			compact();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void load() {
+		int countsGeneration = loadLines(getCountsFilePath());
+
+		// 세대 번호가 없는 counts.txt 는 예전 형식 (counts.log 하나만 썼다)
+		if (countsGeneration < 0) {
+			countsGeneration = 0;
+			loadLines(getLegacyLogFilePath());
+		}
+
+		logGeneration = countsGeneration;
+
+		// 합쳐지지 않은 로그만 세대 순서로 (중간에 끊긴 마지막 줄은 loadLines에서 무시된다)
+		for (int generation : getLogGenerations()) {
+			if (generation >= countsGeneration) {
+				loadLines(getLogFilePath(generation));
+				logGeneration = Math.max(logGeneration, generation);
+			}
+		}
+
+		for (Counter counter : counters.values()) {
+			counter.savedHits = counter.hits.sum();
+			counter.savedLikes = counter.likes.sum();
+		}
 	}
 
-	// 게시물 수정
-	public int modifyArticle(Article modifyArticle, int id) {
-		return db.modifyArticle(modifyArticle, id);
-	}
+	// "g <세대>" 줄이 있으면 그 세대, 없으면 -1
+	private int loadLines(String filePath) {
+		int generation = -1;
 
-	public Article getArticle(int articleId) {
-		return db.getArticle(articleId);
-	}
+		if (Util.isFileExists(filePath) == false) {
+			return generation;
+		}
 
-	// 게시판 삭제
-	public void deleteBoard(int id) {
-		db.deleteBoard(id);
-	}
+		for (String line : Util.getFileContents(filePath).split("\n")) {
+			String[] bits = line.trim().split(" ");
 
-	// code로 board를 가져옴
-	public Board getBoard(String boardCode) {
-		return db.getBoard(boardCode);
-	}
+			try {
+				if (bits.length == 2 && bits[0].equals("g")) {
+					generation = Integer.parseInt(bits[1]);
+				} else if (bits.length == 2 && bits[0].equals("d")) {
+					counters.remove(Integer.parseInt(bits[1]));
+				} else if (bits.length == 3) {
+					Counter counter = getCounter(Integer.parseInt(bits[0]));
+					counter.hits.add(Long.parseLong(bits[1]));
+					counter.likes.add(Long.parseLong(bits[2]));
+				}
+			} catch (NumberFormatException e) {
+			}
+		}
 
-	// id로 board를 가져옴
-	public Board getBoard(int id) {
-		return db.getBoard(id);
+		return generation;
 	}
 
-	public List<Article> getArticlesByBoardCode(String code) {
-		return db.getArticlesByBoardCode(code);
-	}
+	// 폴더에 있는 counts-<세대>.log 들의 세대, 오름차순
+	private List<Integer> getLogGenerations() {
+		List<Integer> generations = new ArrayList<>();
+		String[] fileNames = new File(dirPath).list();
 
-	public List<Board> getBoards() {
-		return db.getBoards();
-	}
+		if (fileNames == null) {
+			return generations;
+		}
 
-	public Board getBoardByCode(String code) {
-		return db.getBoardByCode(code);
+		for (String fileName : fileNames) {
+			if (fileName.startsWith("counts-") && fileName.endsWith(".log")) {
+				int generation = Util.parsePositiveInt(fileName.substring(7, fileName.length() - 4));
+
+				if (generation > 0 || fileName.equals("counts-0.log")) {
+					generations.add(generation);
+				}
+			}
+		}
+
+		Collections.sort(generations);
+
+		return generations;
 	}
 
-	public int saveBoard(Board board) {
-		return db.saveBoard(board);
+	private String getCountsFilePath() {
+		return dirPath + "/counts.txt";
 	}
 
-	// 게시물 저장
-	public int save(Article article) {
-		return db.saveArticle(article);
+	private String getLogFilePath(int generation) {
+		return dirPath + "/counts-" + generation + ".log";
 	}
 
-	public List<Article> getArticles() {
-		return db.getArticles();
+	private String getLegacyLogFilePath() {
+		return dirPath + "/counts.log";
 	}
 }
 
-class MemberDao {
-	DB db;
+// VersionClock
+// DB 전체에서 쓰기마다 1씩 올라가는 버전 번호와, 열려있는 스냅샷들의 버전
+class VersionClock {
+	private AtomicLong version = new AtomicLong();
+	// 스냅샷 버전 -> 그 버전으로 열려있는 스냅샷 수
+	private ConcurrentSkipListMap<Long, Integer> openVersions = new ConcurrentSkipListMap<>();
 
-	MemberDao() {
-		db = Factory.getDB();
+	public long next() {
+		return version.incrementAndGet();
 	}
 
-	public Member getMemberByLoginIdAndLoginPw(String loginId, String loginPw) {
-		return db.getMemberByLoginIdAndLoginPw(loginId, loginPw);
+	public long getVersion() {
+		return version.get();
 	}
 
-	public Member getMemberByLoginId(String loginId) {
-		return db.getMemberByLoginId(loginId);
+	public void open(long snapshotVersion) {
+		openVersions.merge(snapshotVersion, 1, Integer::sum);
 	}
 
-	public Member getMember(int id) {
-		return db.getMember(id);
+	public void close(long snapshotVersion) {
+		openVersions.computeIfPresent(snapshotVersion, (key, count) -> count == 1 ? null : count - 1);
 	}
 
-	public int save(Member member) {
-		return db.saveMember(member);
+	public boolean hasOpenSnapshots() {
+		return openVersions.isEmpty() == false;
+	}
+
+	// 열려있는 스냅샷 중 가장 오래된 버전 (없으면 Long.MAX_VALUE)
+	public long getOldestOpenVersion() {
+		Map.Entry<Long, Integer> oldest = openVersions.firstEntry();
+		return oldest == null ? Long.MAX_VALUE : oldest.getKey();
 	}
 }
 
-// DB
-class DB {
-	private Map<String, Table> tables;
+// DBSnapshot
+// DB.openSnapshot() 한 시점의 DB를 읽는다. 그 뒤에 쓴 내용은 보이지 않는다.
+// 스냅샷 이후에 바뀐 게 없는 테이블은 지금 테이블을 그대로 읽고 (다 읽은 뒤에도 안 바뀌었을 때만 믿는다),
+// 바뀐 테이블은 그 시점의 id 목록을 한번 만들어 두고 거기서 읽는다.
+// 다 쓰면 꼭 close 해야 예전 row들이 정리된다.
+class DBSnapshot implements AutoCloseable {
+	private DB db;
+	private Table<Article> articleTable;
+	private Table<Board> boardTable;
+	private Table<Member> memberTable;
+	private Table<ArticleReply> replyTable;
+	private long version;
+	// "테이블:인덱스:값" -> 그 시점의 id들
+	private Map<String, int[]> idsCache = new ConcurrentHashMap<>();
+	private AtomicBoolean closed = new AtomicBoolean();
+
+	DBSnapshot(DB db, Table<Article> articleTable, Table<Board> boardTable, Table<Member> memberTable,
+			Table<ArticleReply> replyTable, long version) {
+		this.db = db;
+		this.articleTable = articleTable;
+		this.boardTable = boardTable;
+		this.memberTable = memberTable;
+		this.replyTable = replyTable;
+		this.version = version;
+	}
+
+	public long getVersion() {
+		return version;
+	}
 
-	public DB() {
-		String dbDirPath = getDirPath();
-		Util.makeDir(dbDirPath);
+	public Article getArticle(int id) {
+		return articleTable.getRow(id, version);
+	}
 
-		tables = new HashMap<>();
+	public Board getBoard(int id) {
+		return boardTable.getRow(id, version);
+	}
 
-		tables.put("article", new Table<Article>(Article.class, dbDirPath));
-		tables.put("board", new Table<Board>(Board.class, dbDirPath));
-		tables.put("member", new Table<Member>(Member.class, dbDirPath));
+	public Member getMember(int id) {
+		return memberTable.getRow(id, version);
 	}
 
-	// 게시물 삭제
-	public void articleDelete(int id) {
-		tables.get("article").delete(id);
+	public List<Board> getBoards() {
+		return getRows(boardTable, null, null, 0, Integer.MAX_VALUE);
+	}
 
+	// boardId가 0이면 전체 게시판
+	public List<Article> getArticles(int boardId, int offset, int limit) {
+		return getRows(articleTable, boardId == 0 ? null : "boardId", boardId, offset, limit);
 	}
 
-	// 수정
-	public int modifyArticle(Article modifyArticle, int id) {
-		return tables.get("article").modify(modifyArticle, id);
+	public List<Article> getArticlesAfter(int boardId, int afterId, int limit) {
+		return getRowsAfter(articleTable, boardId == 0 ? null : "boardId", boardId, afterId, limit);
 	}
 
-	public Article getArticle(int articleId) {
-		List<Article> articles = getArticles();
+	public int getArticleCount(int boardId) {
+		if (articleTable.isUnchangedSince(version)) {
+			int count = boardId == 0 ? articleTable.getRowCount() : articleTable.getRowCountByIndex("boardId", boardId);
 
-		for (Article article : articles) {
-			if (article.getId() == articleId) {
-				return article;
+			if (articleTable.isUnchangedSince(version)) {
+				return count;
 			}
 		}
-		return null;
-	}
 
-	// 게시판 삭제
-	public void deleteBoard(int id) {
-		tables.get("board").delete(id);
+		return getIds(articleTable, boardId == 0 ? null : "boardId", boardId).length;
 	}
 
-	public List<Article> getArticlesByBoardCode(String code) {
-		Board board = getBoardByCode(code);
-		// free => 2
-		// notice => 1
+	public List<ArticleReply> getReplies(int articleId) {
+		return getRows(replyTable, "articleId", articleId, 0, Integer.MAX_VALUE);
+	}
 
-		List<Article> articles = getArticles();
-		List<Article> newArticles = new ArrayList<>();
+	// 같은 게시판의 이전글 id (없으면 0)
+	public int getPrevArticleId(Article article) {
+		if (articleTable.isUnchangedSince(version)) {
+			int prevId = db.getPrevArticleId(article.getBoardId(), article.getId());
 
-		for (Article article : articles) {
-			if (article.getBoardId() == board.getId()) {
-				newArticles.add(article);
+			if (articleTable.isUnchangedSince(version)) {
+				return prevId;
 			}
 		}
 
-		return newArticles;
+		int[] ids = getIds(articleTable, "boardId", article.getBoardId());
+		int pos = Arrays.binarySearch(ids, article.getId());
+		int prevPos = pos >= 0 ? pos - 1 : -pos - 2;
+
+		return prevPos >= 0 ? ids[prevPos] : 0;
 	}
 
-	public Member getMemberByLoginIdAndLoginPw(String loginId, String loginPw) {
-		List<Member> members = getMembers();
+	// 같은 게시판의 다음글 id (없으면 0)
+	public int getNextArticleId(Article article) {
+		if (articleTable.isUnchangedSince(version)) {
+			int nextId = db.getNextArticleId(article.getBoardId(), article.getId());
 
-		for (Member member : members) {
-			if (member.getLoginId().equals(loginId) && member.getLoginPw().equals(loginPw)) {
-				return member;
+			if (articleTable.isUnchangedSince(version)) {
+				return nextId;
 			}
 		}
 
-		return null;
+		int[] ids = getIds(articleTable, "boardId", article.getBoardId());
+		int pos = Arrays.binarySearch(ids, article.getId());
+		int nextPos = pos >= 0 ? pos + 1 : -pos - 1;
+
+		return nextPos < ids.length ? ids[nextPos] : 0;
 	}
 
-	public Member getMemberByLoginId(String loginId) {
-		List<Member> members = getMembers();
+	private <T> List<T> getRows(Table<T> table, String indexName, Object key, int offset, int limit) {
+		if (table.isUnchangedSince(version)) {
+			List<T> rows = indexName == null ? table.getRows(offset, limit)
+					: table.getRowsByIndex(indexName, key, offset, limit);
 
-		for (Member member : members) {
-			if (member.getLoginId().equals(loginId)) {
-				return member;
+			if (table.isUnchangedSince(version)) {
+				return rows;
 			}
 		}
 
-		return null;
-	}
+		int[] ids = getIds(table, indexName, key);
+		List<T> rows = new ArrayList<>();
 
-	public List<Member> getMembers() {
-		return tables.get("member").getRows();
+		for (int i = offset; i < ids.length && rows.size() < limit; i++) {
+			rows.add(table.getRow(ids[i], version));
+		}
+
+		return rows;
 	}
 
-	// 일치하는 코드의 보드 리턴
-	public Board getBoardByCode(String code) {
-		List<Board> boards = getBoards();
+	private <T> List<T> getRowsAfter(Table<T> table, String indexName, Object key, int afterId, int limit) {
+		if (table.isUnchangedSince(version)) {
+			List<T> rows = indexName == null ? table.getRowsAfter(afterId, limit)
+					: table.getRowsByIndexAfter(indexName, key, afterId, limit);
 
-		for (Board board : boards) {
-			if (board.getCode().equals(code)) {
-				return board;
+			if (table.isUnchangedSince(version)) {
+				return rows;
 			}
 		}
 
-		return null;
-	}
-
-	// code로 보드 갖고옴
-	public Board getBoard(String code) {
-		List<Board> boards = getBoards();
+		int[] ids = getIds(table, indexName, key);
+		int pos = Arrays.binarySearch(ids, afterId);
+		List<T> rows = new ArrayList<>();
 
-		for (Board board : boards) {
-			if (board.getCode().equals(code)) {
-				return board;
-			}
+		for (int i = pos >= 0 ? pos + 1 : -pos - 1; i < ids.length && rows.size() < limit; i++) {
+			rows.add(table.getRow(ids[i], version));
 		}
 
-		return null;
+		return rows;
 	}
 
-	// id로 보드 갖고옴
-	public Board getBoard(int id) {
-		return (Board) tables.get("board").getRow(id);
+	private int[] getIds(Table<?> table, String indexName, Object key) {
+		return idsCache.computeIfAbsent(table.getTableName() + ":" + indexName + ":" + key,
+				cacheKey -> table.getIdsAt(indexName, key, version));
 	}
 
-	public List<Board> getBoards() {
-		return tables.get("board").getRows();
+	@Override
+	public void close() {
+		if (closed.compareAndSet(false, true)) {
+			db.closeSnapshot(version);
+		}
 	}
+}
 
-	public Member getMember(int id) {
-		return (Member) tables.get("member").getRow(id);
-	}
+// BoardArticleIndex
+// 게시판 id -> 그 게시판 게시물 id들 (오름차순 int 배열)
+// 이전글/다음글을 이진 탐색으로 O(log n)에 찾는다.
+// 배열은 바꿀 때마다 새로 만들어 교체하므로 읽을 때는 잠그지 않는다. (새 글은 보통 맨 뒤에 붙는다)
+class BoardArticleIndex {
+	private static final int[] EMPTY = new int[0];
 
-	public int saveBoard(Board board) {
-		return tables.get("board").saveRow(board);
-	}
+	private Map<Integer, int[]> idsByBoardId = new ConcurrentHashMap<>();
 
-	public String getDirPath() {
-		return "db";
-	}
+	BoardArticleIndex(List<Article> articles) {
+		Map<Integer, List<Integer>> ids = new HashMap<>();
 
-	public int saveMember(Member member) {
-		return tables.get("member").saveRow(member);
-	}
+		for (Article article : articles) {
+			ids.computeIfAbsent(article.getBoardId(), key -> new ArrayList<>()).add(article.getId());
+		}
 
-	public List<Article> getArticles() {
-		return tables.get("article").getRows();
+		for (Map.Entry<Integer, List<Integer>> entry : ids.entrySet()) {
+			int[] boardIds = entry.getValue().stream().mapToInt(Integer::intValue).toArray();
+			Arrays.sort(boardIds);
+			idsByBoardId.put(entry.getKey(), boardIds);
+		}
 	}
 
-	public int saveArticle(Article article) {
-		return tables.get("article").saveRow(article);
+	public synchronized void add(int boardId, int id) {
+		int[] ids = idsByBoardId.getOrDefault(boardId, EMPTY);
+		int pos = Arrays.binarySearch(ids, id);
+
+		if (pos >= 0) {
+			return;
+		}
+
+		pos = -pos - 1;
+		int[] newIds = new int[ids.length + 1];
+		System.arraycopy(ids, 0, newIds, 0, pos);
+		newIds[pos] = id;
+		System.arraycopy(ids, pos, newIds, pos + 1, ids.length - pos);
+
+		idsByBoardId.put(boardId, newIds);
 	}
 
-	public void backup() {
-		for (String tableName : tables.keySet()) {
-			Table table = tables.get(tableName);
-			table.backup();
+	public synchronized void remove(int boardId, int id) {
+		int[] ids = idsByBoardId.getOrDefault(boardId, EMPTY);
+		int pos = Arrays.binarySearch(ids, id);
+
+		if (pos < 0) {
+			return;
 		}
+
+		int[] newIds = new int[ids.length - 1];
+		System.arraycopy(ids, 0, newIds, 0, pos);
+		System.arraycopy(ids, pos + 1, newIds, pos, ids.length - pos - 1);
+
+		idsByBoardId.put(boardId, newIds);
 	}
-}
 
-// Table
-class Table<T> {
-	private Class<T> dataCls;
-	private String tableName;
-	private String tableDirPath;
+	// 같은 게시판에서 id 바로 앞의 게시물 id (없으면 0)
+	public int getPrevId(int boardId, int id) {
+		int[] ids = idsByBoardId.getOrDefault(boardId, EMPTY);
+		int pos = Arrays.binarySearch(ids, id);
+		// 없는 id면 들어갈 자리 앞
+		int prevPos = pos >= 0 ? pos - 1 : -pos - 2;
 
-	public Table(Class<T> dataCls, String dbDirPath) {
-		this.dataCls = dataCls;
-		this.tableName = Util.lcfirst(dataCls.getCanonicalName());
-		this.tableDirPath = dbDirPath + "/" + this.tableName;
+		return prevPos >= 0 ? ids[prevPos] : 0;
+	}
 
-		Util.makeDir(tableDirPath);
+	// 같은 게시판에서 id 바로 뒤의 게시물 id (없으면 0)
+	public int getNextId(int boardId, int id) {
+		int[] ids = idsByBoardId.getOrDefault(boardId, EMPTY);
+		int pos = Arrays.binarySearch(ids, id);
+		int nextPos = pos >= 0 ? pos + 1 : -pos - 1;
+
+		return nextPos < ids.length ? ids[nextPos] : 0;
 	}
+}
 
-	// 수정
-	public int modify(T data, int id) {
-		Dto dto = (Dto) data;
+// TableIndex
+// 컬럼 값 -> row id 해시 인덱스
+// unique 인덱스는 값 하나에 id 하나, 일반 인덱스는 값 하나에 id 여러개(오름차순)
+class TableIndex<T> {
+	private Function<T, Object> keyGetter;
+	private boolean unique;
+	private Map<Object, Integer> uniqueIds;
+	private Map<Object, IdSet> ids;
 
-		dto.setId(id);
+	// 값 하나에 해당하는 id들 (개수를 따로 세둔다, ConcurrentSkipListSet의 size()는 전부 세기 때문)
+	private static class IdSet {
+		NavigableSet<Integer> ids = new ConcurrentSkipListSet<>();
+		volatile int count;
+	}
 
-		String rowFilePath = getRowFilePath(dto.getId());
+	public Object getKey(T row) {
+		return keyGetter.apply(row);
+	}
 
-		Util.writeJsonFile(rowFilePath, data);
-		return dto.getId();
+	TableIndex(Function<T, Object> keyGetter, boolean unique) {
+		this.keyGetter = keyGetter;
+		this.unique = unique;
+		// 읽을 때는 잠그지 않는다
+		uniqueIds = new ConcurrentHashMap<>();
+		ids = new ConcurrentHashMap<>();
 	}
 
-	public int saveRow(T data) {
-		Dto dto = (Dto) data;
+	public void add(T row, int id) {
+		Object key = keyGetter.apply(row);
 
-		if (dto.getId() == 0) {
-			int lastId = getLastId();
-			int newId = lastId + 1;
-			dto.setId(newId);
-			setLastId(newId);
+		if (key == null) {
+			return;
 		}
 
-		String rowFilePath = getRowFilePath(dto.getId());
-
-		Util.writeJsonFile(rowFilePath, data);
+		if (unique) {
+			uniqueIds.put(key, id);
+		} else {
+			// 같은 값에 대한 추가/삭제는 compute 안에서 하나씩 처리된다
+			ids.compute(key, (k, idSet) -> {
+				if (idSet == null) {
+					idSet = new IdSet();
+				}
 
-		return dto.getId();
-	};
+				if (idSet.ids.add(id)) {
+					idSet.count++;
+				}
 
-	private String getRowFilePath(int id) {
-		return tableDirPath + "/" + id + ".json";
+				return idSet;
+			});
+		}
 	}
 
-	private void setLastId(int lastId) {
-		String filePath = getLastIdFilePath();
-		Util.writeFileContents(filePath, lastId);
-	}
+	public void remove(T row, int id) {
+		Object key = keyGetter.apply(row);
 
-	private int getLastId() {
-		String filePath = getLastIdFilePath();
+		if (key == null) {
+			return;
+		}
 
-		if (Util.isFileExists(filePath) == false) {
-			int lastId = 0;
-			Util.writeFileContents(filePath, lastId);
-			return lastId;
+		if (unique) {
+			uniqueIds.remove(key, id);
+			return;
 		}
 
-		return Integer.parseInt(Util.getFileContents(filePath));
-	}
+		ids.computeIfPresent(key, (k, idSet) -> {
+			if (idSet.ids.remove(id)) {
+				idSet.count--;
+			}
 
-	private String getLastIdFilePath() {
-		return this.tableDirPath + "/lastId.txt";
+			return idSet.count == 0 ? null : idSet;
+		});
 	}
 
-	public T getRow(int id) {
-		return (T) Util.getObjectFromJson(getRowFilePath(id), dataCls);
+	// 없으면 0
+	public int getId(Object key) {
+		if (unique == false) {
+			Collection<Integer> idsByKey = getIds(key);
+			return idsByKey.isEmpty() ? 0 : idsByKey.iterator().next();
+		}
+
+		Integer id = uniqueIds.get(key);
+		return id == null ? 0 : id;
 	}
 
-	public void backup() {
+	public Collection<Integer> getIds(Object key) {
+		if (unique) {
+			Integer id = uniqueIds.get(key);
+			return id == null ? Collections.emptyList() : Collections.singletonList(id);
+		}
 
+		IdSet idSet = ids.get(key);
+		return idSet == null ? Collections.emptyList() : Collections.unmodifiableSet(idSet.ids);
 	}
 
-	// 삭제
-	void delete(int id) {
-		String filePath = getRowFilePath(id);
-		Util.deleteFileContents(filePath);
-		// build site된 siteFolder내부의 파일을 같이 삭제해준다.
-		Util.deleteFileContents("site/article/" + id + ".html");
-	}
+	public int getCount(Object key) {
+		if (unique) {
+			return uniqueIds.containsKey(key) ? 1 : 0;
+		}
 
-	List<T> getRows() {
-		int lastId = getLastId();
+		IdSet idSet = ids.get(key);
+		return idSet == null ? 0 : idSet.count;
+	}
 
-		List<T> rows = new ArrayList<>();
+	// afterId보다 큰 id들
+	public Collection<Integer> getIdsAfter(Object key, int afterId) {
+		if (unique) {
+			int id = getId(key);
+			return id > afterId ? Collections.singletonList(id) : Collections.emptyList();
+		}
 
-		for (int id = 1; id <= lastId; id++) {
-			T row = getRow(id);
+		IdSet idSet = ids.get(key);
 
-			if (row != null) {
-				rows.add(row);
-			}
+		if (idSet == null) {
+			return Collections.emptyList();
 		}
 
-		return rows;
-	};
+		NavigableSet<Integer> tail = idSet.ids.tailSet(afterId, false);
+		return Collections.unmodifiableSet(tail);
+	}
 }
 
 // DTO
@@ -1488,8 +7210,6 @@ class Article extends Dto {
 }
 
 class ArticleReply extends Dto {
-	private int id;
-	private String regDate;
 	private int articleId;
 	private int memberId;
 	private String body;
@@ -1498,6 +7218,12 @@ class ArticleReply extends Dto {
 
 	}
 
+	ArticleReply(int articleId, int memberId, String body) {
+		this.articleId = articleId;
+		this.memberId = memberId;
+		this.body = body;
+	}
+
 	public int getArticleId() {
 		return articleId;
 	}
@@ -1522,6 +7248,11 @@ class ArticleReply extends Dto {
 		this.body = body;
 	}
 
+	@Override
+	public String toString() {
+		return "ArticleReply [articleId=" + articleId + ", memberId=" + memberId + ", body=" + body + ", getId()="
+				+ getId() + ", getRegDate()=" + getRegDate() + "]";
+	}
 }
 
 class Member extends Dto {
@@ -1566,6 +7297,9 @@ class Member extends Dto {
 
 // Util
 class Util {
+	// 설정이 끝난 ObjectMapper는 여러 쓰레드에서 같이 써도 되므로 하나만 만들어 쓴다
+	private static final ObjectMapper om = new ObjectMapper();
+
 	// 현재날짜문장
 	public static String getNowDateStr() {
 		Calendar cal = Calendar.getInstance();
@@ -1579,6 +7313,38 @@ class Util {
 		writeFileContents(filePath, data + "");
 	}
 
+	// FNV-1a 64비트 해시
+	public static long hash64(byte[] bytes) {
+		long hash = 0xcbf29ce484222325L;
+
+		for (byte b : bytes) {
+			hash ^= (b & 0xff);
+			hash *= 0x100000001b3L;
+		}
+
+		return hash;
+	}
+
+	public static long hash64(String str) {
+		return hash64(str.getBytes());
+	}
+
+	// 해시 이어붙이기
+	public static long hash64(long seed, long value) {
+		long hash = seed == 0 ? 0xcbf29ce484222325L : seed;
+
+		for (int i = 0; i < 8; i++) {
+			hash ^= (value >>> (i * 8)) & 0xff;
+			hash *= 0x100000001b3L;
+		}
+
+		return hash;
+	}
+
+	public static long hash64(long seed, String str) {
+		return hash64(seed, hash64(str));
+	}
+
 	// 첫 문자 소문자화
 	public static String lcfirst(String str) {
 		String newStr = "";
@@ -1598,6 +7364,21 @@ class Util {
 		return false;
 	}
 
+	// 숫자로만 된 문자열 (9자리까지), 아니면 0
+	public static int parsePositiveInt(String str) {
+		if (str.length() == 0 || str.length() > 9) {
+			return 0;
+		}
+
+		for (int i = 0; i < str.length(); i++) {
+			if (str.charAt(i) < '0' || str.charAt(i) > '9') {
+				return 0;
+			}
+		}
+
+		return Integer.parseInt(str);
+	}
+
 	// 파일내용 읽어오기
 	public static String getFileContents(String filePath) {
 		String rs = null;
@@ -1608,7 +7389,7 @@ class Util {
 			fileStream = new FileInputStream(filePath);// 파일 스트림 생성
 			// 버퍼 선언
 			byte[] readBuffer = new byte[fileStream.available()];
-			while (fileStream.read(readBuffer) != -1) {
+			while (fileStream.read(readBuffer) > 0) {
 			}
 
 			rs = new String(readBuffer);
@@ -1627,6 +7408,23 @@ class Util {
 		deleteFile.delete();
 	}
 
+	// 폴더 삭제 (안의 파일, 하위 폴더까지)
+	public static void deleteDir(String dirPath) {
+		File[] files = new File(dirPath).listFiles();
+
+		if (files != null) {
+			for (File file : files) {
+				if (file.isDirectory()) {
+					deleteDir(file.getPath());
+				} else {
+					file.delete();
+				}
+			}
+		}
+
+		new File(dirPath).delete();
+	}
+
 	// 파일 쓰기
 	public static void writeFileContents(String filePath, String contents) {
 		BufferedOutputStream bs = null;
@@ -1644,10 +7442,26 @@ class Util {
 		}
 	}
 
+	// 임시 파일에 다 쓴 다음 이름을 바꿔서, 읽는 쪽이 반쯤 쓰인 파일을 보지 않게 한다.
+	public static void writeFileContentsAtomically(String filePath, String contents) {
+		writeFileContentsAtomically(filePath, contents.getBytes());
+	}
+
+	public static void writeFileContentsAtomically(String filePath, byte[] contents) {
+		Path path = Paths.get(filePath);
+		Path tmpPath = Paths.get(filePath + ".tmp");
+
+		try {
+			Files.write(tmpPath, contents);
+			Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
 	// Json안에 있는 내용을 가져오기
-	public static Object getObjectFromJson(String filePath, Class cls) {
-		ObjectMapper om = new ObjectMapper();
-		Object obj = null;
+	public static <T> T getObjectFromJson(String filePath, Class<T> cls) {
+		T obj = null;
 		try {
 			obj = om.readValue(new File(filePath), cls);
 		} catch (JsonParseException e) {
@@ -1663,8 +7477,30 @@ class Util {
 		return obj;
 	}
 
+	// json 바이트로 Object 만들기
+	public static <T> T getObjectFromJson(byte[] json, Class<T> cls) {
+		T obj = null;
+		try {
+			obj = om.readValue(json, cls);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		return obj;
+	}
+
+	// Object를 json 바이트로
+	public static byte[] toJsonBytes(Object obj) {
+		try {
+			return om.writeValueAsBytes(obj);
+		} catch (JsonProcessingException e) {
+			e.printStackTrace();
+		}
+
+		return new byte[0];
+	}
+
 	public static void writeJsonFile(String filePath, Object obj) {
-		ObjectMapper om = new ObjectMapper();
 		try {
 			om.writeValue(new File(filePath), obj);
 		} catch (JsonGenerationException e) {
@@ -1679,7 +7515,7 @@ class Util {
 	public static void makeDir(String dirPath) {
 		File dir = new File(dirPath);
 		if (!dir.exists()) {
-			dir.mkdir();
+			dir.mkdirs();
 		}
 	}
 }
\ No newline at end of file